@@ -0,0 +1,138 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.benchmarks;
+
+import iot.jcypher.database.DBAccessFactory;
+import iot.jcypher.database.DBType;
+import iot.jcypher.database.IDBAccess;
+import iot.jcypher.domain.DomainAccessFactory;
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domain.SyncInfo;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.query.result.JcResultException;
+import iot.jcypher.samples.domain.people.Population;
+import iot.jcypher.samples.domain.people.PopulationGenerator;
+import iot.jcypher.samples.domain.people.graph_access.BulkStore;
+import iot.jcypher.samples.domain.people.graph_access.BulkStoreResult;
+import iot.jcypher.samples.domain.people.model.Person;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * An in-memory graph database seeded with a population of the people domain.
+ * <br/>'sample' is the small hand-made population of the samples (see Population),
+ * a number is the number of persons of a population created by a PopulationGenerator.
+ * <br/>JMH runs every benchmark in a forked JVM of its own, so benchmarks
+ * which modify the database don't affect others.
+ */
+@State(Scope.Benchmark)
+public class PeopleDatabase {
+
+	public static final String DOMAIN_NAME = "PEOPLE-DOMAIN";
+	public static final String SAMPLE = "sample";
+	public static final long SEED = 42;
+
+	@Param({SAMPLE, "1000", "10000"})
+	public String population;
+
+	private IDBAccess dbAccess;
+	private long[] personIds;
+
+	@Setup
+	public void setUp() {
+		this.dbAccess = DBAccessFactory.createDBAccess(DBType.IN_MEMORY, new Properties());
+		clearGraph();
+
+		BulkStore bulkStore = new BulkStore() {
+			@Override
+			protected IDomainAccess createDomainAccess() {
+				return PeopleDatabase.this.createDomainAccess();
+			}
+		};
+		BulkStoreResult result = bulkStore.store(createPopulation());
+		if (result.hasErrors())
+			throw new JcResultException(result.getErrors());
+
+		IDomainAccess domainAccess = createDomainAccess();
+		List<Person> persons = domainAccess.loadByType(Person.class, 0, 0, -1);
+		List<SyncInfo> syncInfos = domainAccess.getSyncInfos(new ArrayList<Object>(persons));
+		this.personIds = new long[syncInfos.size()];
+		for (int i = 0; i < syncInfos.size(); i++)
+			this.personIds[i] = syncInfos.get(i).getId();
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (this.dbAccess != null)
+			this.dbAccess.close();
+	}
+
+	/**
+	 * remove all nodes and relations from the database,
+	 * e.g. to start every iteration of a benchmark which stores objects with an empty graph.
+	 * <br/>Note: The seeded population is removed as well (see getPersonIds())
+	 */
+	public void clearGraph() {
+		List<JcError> errors = this.dbAccess.clearDatabase();
+		if (!errors.isEmpty())
+			throw new JcResultException(errors);
+	}
+
+	/**
+	 * answer a new IDomainAccess to the people domain,
+	 * a new one is needed to measure loads which are not served by
+	 * the objects already loaded by an IDomainAccess
+	 * @return a new IDomainAccess
+	 */
+	public IDomainAccess createDomainAccess() {
+		return DomainAccessFactory.createDomainAccess(this.dbAccess, DOMAIN_NAME);
+	}
+
+	/**
+	 * answer the node ids of all stored persons
+	 * @return an array of node ids
+	 */
+	public long[] getPersonIds() {
+		return personIds;
+	}
+
+	/**
+	 * answer a generator for populations of the configured size
+	 * @param seed
+	 * @return a PopulationGenerator
+	 */
+	public PopulationGenerator createGenerator(long seed) {
+		PopulationGenerator generator = new PopulationGenerator(seed);
+		if (!SAMPLE.equals(this.population))
+			generator.setNumberOfPersons(Integer.parseInt(this.population));
+		return generator;
+	}
+
+	private List<Object> createPopulation() {
+		if (SAMPLE.equals(this.population))
+			return new Population().createPopulation();
+		return createGenerator(SEED).createPopulation();
+	}
+}
@@ -0,0 +1,248 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.benchmarks;
+
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domainquery.CountQueryResult;
+import iot.jcypher.domainquery.DomainQuery;
+import iot.jcypher.domainquery.DomainQueryResult;
+import iot.jcypher.domainquery.api.DomainObjectMatch;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.query.result.JcResultException;
+import iot.jcypher.samples.domain.people.PopulationGenerator;
+import iot.jcypher.samples.domain.people.PopulationStream;
+import iot.jcypher.samples.domain.people.model.Address;
+import iot.jcypher.samples.domain.people.model.Area;
+import iot.jcypher.samples.domain.people.model.Person;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the domain operations and of the query families
+ * demonstrated in PeopleDomain.
+ * <br/>Throughput is reported in operations per millisecond,
+ * SampleTime reports latency percentiles.
+ * Run with '-prof gc' to report the allocation rate.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class PeopleDomainBenchmark {
+
+	private static final int IDS_PER_LOAD = 20;
+	private static final int PAGE_SIZE = 50;
+	private static final int STORE_CHUNK_SIZE = 20;
+
+	/*********************************************/
+	/**
+	 * per thread state, chooses the persons to load
+	 */
+	@State(Scope.Thread)
+	public static class LoadState {
+		private Random random;
+		private long[] ids;
+
+		@Setup
+		public void setUp() {
+			this.random = new Random(PeopleDatabase.SEED);
+			this.ids = new long[IDS_PER_LOAD];
+		}
+
+		long[] nextIds(long[] personIds) {
+			for (int i = 0; i < this.ids.length; i++)
+				this.ids[i] = personIds[this.random.nextInt(personIds.length)];
+			return this.ids;
+		}
+	}
+
+	/*********************************************/
+	/**
+	 * state of the store benchmark (to be run with a single thread),
+	 * produces chunks of new persons to store.
+	 * <br/>All chunks share one Area hierarchy, it is stored once per iteration
+	 * through the IDomainAccess which then stores all chunks of the iteration,
+	 * so the Areas are not inserted again with every chunk.
+	 * Every iteration starts with an empty graph, so it measures the same work.
+	 */
+	@State(Scope.Thread)
+	public static class StoreState {
+		private PeopleDatabase database;
+		private PopulationGenerator generator;
+		private PopulationStream stream;
+		private IDomainAccess domainAccess;
+
+		@Setup(Level.Trial)
+		public void setUp(PeopleDatabase database) {
+			this.database = database;
+			// one generator, i.e. one Area hierarchy, per trial
+			this.generator = database.createGenerator(PeopleDatabase.SEED + 1);
+		}
+
+		@Setup(Level.Iteration)
+		public void setUpIteration() {
+			this.database.clearGraph();
+			// the graph is cleared, the IDomainAccess of the previous iteration
+			// would take the removed Areas as stored
+			this.domainAccess = this.database.createDomainAccess();
+			List<JcError> errors = this.domainAccess.store(this.generator.getAreas());
+			if (!errors.isEmpty())
+				throw new JcResultException(errors);
+			this.stream = new PopulationStream(this.generator, STORE_CHUNK_SIZE);
+		}
+
+		List<Object> nextChunk() {
+			if (!this.stream.hasNext()) {
+				// start over, the same persons are created again as new objects
+				this.stream = new PopulationStream(this.generator, STORE_CHUNK_SIZE);
+			}
+			return this.stream.next();
+		}
+	}
+
+	@Benchmark
+	public List<JcError> store(StoreState state) {
+		List<Object> chunk = state.nextChunk();
+		List<JcError> errors = state.domainAccess.store(chunk);
+		if (!errors.isEmpty())
+			throw new JcResultException(errors);
+		return errors;
+	}
+
+	@Benchmark
+	public List<Person> loadByIds(PeopleDatabase database, LoadState state) {
+		return database.createDomainAccess().loadByIds(Person.class, -1,
+				state.nextIds(database.getPersonIds()));
+	}
+
+	@Benchmark
+	public List<Person> loadByType_Person(PeopleDatabase database) {
+		return database.createDomainAccess().loadByType(Person.class, -1, 0, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public List<Area> loadByType_Area(PeopleDatabase database) {
+		return database.createDomainAccess().loadByType(Area.class, -1, 0, -1);
+	}
+
+	@Benchmark
+	public long numberOfInstancesOf(PeopleDatabase database) {
+		return database.createDomainAccess().numberOfInstancesOf(Person.class);
+	}
+
+	/**
+	 * query family: Predicate Expressions
+	 */
+	@Benchmark
+	public List<Person> query_Predicate(PeopleDatabase database) {
+		DomainQuery q = database.createDomainAccess().createQuery();
+		DomainObjectMatch<Person> smithsMatch = q.createMatch(Person.class);
+		q.WHERE(smithsMatch.atttribute("lastName")).EQUALS("Smith");
+		DomainQueryResult result = q.execute();
+		return result.resultOf(smithsMatch);
+	}
+
+	/**
+	 * query family: Traversal Expressions
+	 */
+	@Benchmark
+	public List<Address> query_Traversal(PeopleDatabase database) {
+		DomainQuery q = database.createDomainAccess().createQuery();
+		DomainObjectMatch<Person> smithsMatch = q.createMatch(Person.class);
+		q.WHERE(smithsMatch.atttribute("lastName")).EQUALS("Smith");
+		DomainObjectMatch<Address> addressesMatch =
+				q.TRAVERSE_FROM(smithsMatch).FORTH("pointsOfContact").TO(Address.class);
+		DomainQueryResult result = q.execute();
+		return result.resultOf(addressesMatch);
+	}
+
+	/**
+	 * query family: Collection Expressions - SELECT
+	 */
+	@Benchmark
+	public List<Person> query_Select(PeopleDatabase database) {
+		DomainQuery q = database.createDomainAccess().createQuery();
+		DomainObjectMatch<Person> personMatch = q.createMatch(Person.class);
+		DomainObjectMatch<Address> addressMatch =
+				q.TRAVERSE_FROM(personMatch).FORTH("pointsOfContact").TO(Address.class);
+		DomainObjectMatch<Person> onMarketStreetMatch =
+				q.SELECT_FROM(personMatch).ELEMENTS(
+						q.WHERE(addressMatch.atttribute("street")).EQUALS("Market Street")
+				);
+		DomainQueryResult result = q.execute();
+		return result.resultOf(onMarketStreetMatch);
+	}
+
+	/**
+	 * query family: Collection Expressions - COLLECT
+	 */
+	@Benchmark
+	public List<String> query_Collect(PeopleDatabase database) {
+		DomainQuery q = database.createDomainAccess().createQuery();
+		DomainObjectMatch<Person> smithsMatch = q.createMatch(Person.class);
+		q.WHERE(smithsMatch.atttribute("lastName")).EQUALS("Smith");
+		DomainObjectMatch<String> firstNamesMatch =
+				q.COLLECT(smithsMatch.atttribute("firstName")).AS(String.class);
+		DomainQueryResult result = q.execute();
+		return result.resultOf(firstNamesMatch);
+	}
+
+	/**
+	 * query family: Collection Expressions - UNION
+	 */
+	@Benchmark
+	public List<Person> query_Union(PeopleDatabase database) {
+		DomainQuery q = database.createDomainAccess().createQuery();
+		DomainObjectMatch<Person> smithsMatch = q.createMatch(Person.class);
+		q.WHERE(smithsMatch.atttribute("lastName")).EQUALS("Smith");
+		DomainObjectMatch<Person> berghammersMatch = q.createMatch(Person.class);
+		q.WHERE(berghammersMatch.atttribute("lastName")).EQUALS("Berghammer");
+		@SuppressWarnings("unchecked")
+		DomainObjectMatch<Person>[] sets = new DomainObjectMatch[] {smithsMatch, berghammersMatch};
+		DomainObjectMatch<Person> unionMatch = q.UNION(sets);
+		DomainQueryResult result = q.execute();
+		return result.resultOf(unionMatch);
+	}
+
+	/**
+	 * a Predicate Expression, retrieving the number of matching objects only
+	 */
+	@Benchmark
+	public long query_Count(PeopleDatabase database) {
+		IDomainAccess domainAccess = database.createDomainAccess();
+		DomainQuery q = domainAccess.createQuery();
+		DomainObjectMatch<Person> smithsMatch = q.createMatch(Person.class);
+		q.WHERE(smithsMatch.atttribute("lastName")).EQUALS("Smith");
+		CountQueryResult result = q.executeCount();
+		return result.countOf(smithsMatch);
+	}
+}
@@ -0,0 +1,125 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.benchmarks;
+
+import iot.jcypher.query.JcQuery;
+import iot.jcypher.query.api.IClause;
+import iot.jcypher.query.factories.clause.CREATE;
+import iot.jcypher.query.values.JcNode;
+import iot.jcypher.query.writer.CypherWriter;
+import iot.jcypher.query.writer.Format;
+import iot.jcypher.query.writer.JSONWriter;
+import iot.jcypher.query.writer.WriterContext;
+import iot.jcypher.samples.basic.ShakespeareGraph;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of mapping a JcQuery to CYPHER (see Snippet_02)
+ * and to JSON (see Snippet_03) with every Format option.
+ * <br/>Queries: 'small' is the MATCH query of the ShakespeareGraph sample,
+ * 'medium' is the CREATE query of the 'Shakespeare Graph',
+ * 'large' is a synthetic batch of 10000 CREATE clauses
+ * (nodes with properties, every second clause creates a relation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class QuerySerializationBenchmark {
+
+	public static final int LARGE_NUMBER_OF_CLAUSES = 10000;
+
+	@Param({"small", "medium", "large"})
+	public String size;
+
+	@Param({"NONE", "PRETTY_1", "PRETTY_2", "PRETTY_3"})
+	public Format format;
+
+	private JcQuery query;
+
+	@Setup
+	public void setUp() {
+		if ("small".equals(this.size))
+			this.query = ShakespeareGraph.createPlaysQuery();
+		else if ("medium".equals(this.size))
+			this.query = ShakespeareGraph.createShakespeareQuery();
+		else if ("large".equals(this.size))
+			this.query = createCreateBatch(LARGE_NUMBER_OF_CLAUSES);
+		else
+			throw new IllegalArgumentException("unknown size: " + this.size);
+	}
+
+	@Benchmark
+	public String toCypher() {
+		WriterContext context = new WriterContext();
+		context.cypherFormat = this.format;
+		CypherWriter.toCypherExpression(this.query, context);
+		return context.buffer.toString();
+	}
+
+	@Benchmark
+	public String toJSON() {
+		WriterContext context = new WriterContext();
+		context.cypherFormat = this.format;
+		JSONWriter.toJSON(this.query, context);
+		return context.buffer.toString();
+	}
+
+	/**
+	 * create a query consisting of the given number of CREATE clauses,
+	 * creating persons and relations among them.
+	 * @param numberOfClauses
+	 * @return a JcQuery
+	 */
+	public static JcQuery createCreateBatch(int numberOfClauses) {
+		IClause[] clauses = new IClause[numberOfClauses];
+		JcNode previous = null;
+		int numNodes = 0;
+		for (int i = 0; i < numberOfClauses; i++) {
+			if (i % 2 == 1 && previous != null) {
+				JcNode next = new JcNode("n" + numNodes);
+				clauses[i] = CREATE.node(previous).relation().out().type("KNOWS")
+						.property("since").value(1990 + i % 30).node(next);
+				previous = next;
+			} else {
+				previous = new JcNode("n" + numNodes);
+				clauses[i] = CREATE.node(previous).label("Person")
+						.property("name").value("Person " + numNodes)
+						.property("age").value(i % 100);
+			}
+			numNodes++;
+		}
+		JcQuery query = new JcQuery();
+		query.setClauses(clauses);
+		return query;
+	}
+}
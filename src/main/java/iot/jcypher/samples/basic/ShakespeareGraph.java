@@ -36,6 +36,40 @@ public class ShakespeareGraph {
 
 	public static void main(String[] args) {
 		
+		JcQuery query = createShakespeareQuery();
+		
+		// map to Cypher
+		String cypher = iot.jcypher.util.Util.toCypher(query, Format.PRETTY_3);
+		System.out.println("CYPHER --------------------");
+		System.out.println(cypher);
+		
+		// map to JSON
+		String json = iot.jcypher.util.Util.toJSON(query, Format.PRETTY_3);
+		System.out.println("");
+		System.out.println("JSON   --------------------");
+		System.out.println(json);
+		
+		query = createPlaysQuery();
+		
+		// map to Cypher
+		cypher = iot.jcypher.util.Util.toCypher(query, Format.PRETTY_3);
+		System.out.println("CYPHER --------------------");
+		System.out.println(cypher);
+		
+		// map to JSON
+		json = iot.jcypher.util.Util.toJSON(query, Format.PRETTY_3);
+		System.out.println("");
+		System.out.println("JSON   --------------------");
+		System.out.println(json);
+		return;
+	}
+	
+	/**
+	 * create the query which creates the 'Shakespeare Graph'
+	 * @return a JcQuery
+	 */
+	public static JcQuery createShakespeareQuery() {
+		
 		JcQuery query = new JcQuery();
 		
 		JcNode shakespeare = new JcNode("shakespeare");
@@ -56,12 +90,6 @@ public class ShakespeareGraph {
 		JcNode england = new JcNode("england");
 		JcNode stratford = new JcNode("stratford");
 		
-		JcNode theater = new JcNode("theater");
-		JcNode bard = new JcNode("bard");
-		JcRelation w = new JcRelation("w");
-		JcNode play = new JcNode("play");
-		JcString playTitle = new JcString("playTitle");
-		
 		query.setClauses(new IClause[] {
 				CREATE.node(shakespeare).property("firstname").value("William").property("lastname").value("Shakespeare"),
 				CREATE.node(juliusCaesar).property("title").value("Julius Caesar"),
@@ -109,19 +137,24 @@ public class ShakespeareGraph {
 				CREATE.node(rsc).relation().out().type("BASED_IN").node(stratford),
 				CREATE.node(shakespeare).relation().out().type("BORN_IN").node(stratford),
 		});
+		return query;
+	}
+	
+	/**
+	 * create the query which answers the titles of the plays written by Shakespeare after 1608,
+	 * which have been performed at the Theatre Royal in Newcastle
+	 * @return a JcQuery
+	 */
+	public static JcQuery createPlaysQuery() {
 		
-		// map to Cypher
-		String cypher = iot.jcypher.util.Util.toCypher(query, Format.PRETTY_3);
-		System.out.println("CYPHER --------------------");
-		System.out.println(cypher);
-		
-		// map to JSON
-		String json = iot.jcypher.util.Util.toJSON(query, Format.PRETTY_3);
-		System.out.println("");
-		System.out.println("JSON   --------------------");
-		System.out.println(json);
+		JcNode newcastle = new JcNode("newcastle");
+		JcNode theater = new JcNode("theater");
+		JcNode bard = new JcNode("bard");
+		JcRelation w = new JcRelation("w");
+		JcNode play = new JcNode("play");
+		JcString playTitle = new JcString("playTitle");
 		
-		query = new JcQuery();
+		JcQuery query = new JcQuery();
 		query.setClauses(new IClause[] {
 				START.node(theater).byIndex("venue").property("name").value("Theatre Royal"),
 				START.node(newcastle).byIndex("city").property("name").value("Newcastle"),
@@ -133,17 +166,6 @@ public class ShakespeareGraph {
 				WHERE.valueOf(w.property("year")).GT(1608),
 				RETURN.DISTINCT().value(play.property("title")).AS(playTitle)
 		});
-		
-		// map to Cypher
-		cypher = iot.jcypher.util.Util.toCypher(query, Format.PRETTY_3);
-		System.out.println("CYPHER --------------------");
-		System.out.println(cypher);
-		
-		// map to JSON
-		json = iot.jcypher.util.Util.toJSON(query, Format.PRETTY_3);
-		System.out.println("");
-		System.out.println("JSON   --------------------");
-		System.out.println(json);
-		return;
+		return query;
 	}
 }
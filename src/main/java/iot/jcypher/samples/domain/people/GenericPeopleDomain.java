@@ -33,21 +33,15 @@ import iot.jcypher.domain.genericmodel.internal.DOWalker;
 import iot.jcypher.domainquery.DomainQueryResult;
 import iot.jcypher.domainquery.GDomainQuery;
 import iot.jcypher.domainquery.api.DomainObjectMatch;
-import iot.jcypher.query.JcQuery;
-import iot.jcypher.query.JcQueryResult;
-import iot.jcypher.query.api.IClause;
-import iot.jcypher.query.factories.clause.NATIVE;
 import iot.jcypher.query.result.JcError;
 import iot.jcypher.query.result.JcResultException;
 import iot.jcypher.query.writer.Format;
 import iot.jcypher.samples.domain.people.graph_access.Config;
+import iot.jcypher.samples.domain.people.graph_access.CypherDumpLoader;
+import iot.jcypher.samples.domain.people.graph_access.ParallelCypherDumpLoader;
 import iot.jcypher.samples.domain.people.util.GenObjectToString;
 import iot.jcypher.samples.domain.people.util.Util;
 
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
@@ -101,37 +95,15 @@ public class GenericPeopleDomain {
 		}
 		
 		// load domain model
-		InputStreamReader ir = null;
-		try {
-			InputStream in = GenericPeopleDomain.class.getResourceAsStream("/load/generic_people_domain.txt");
-			ir = new InputStreamReader(in);
-			
-			LineNumberReader lnr = new LineNumberReader(ir);
-			List<String> lns = new ArrayList<String>();
-			String line = lnr.readLine();
-			while(line != null) {
-				lns.add(line);
-				line = lnr.readLine();
-			}
-			String[] lines = lns.toArray(new String[lns.size()]);
-			IClause[] clauses = new IClause[] {
-					NATIVE.cypher(lines)
-			};
-			JcQuery q = new JcQuery();
-			q.setClauses(clauses);
-			
-			JcQueryResult result = dbAccess.execute(q);
-			if (result.hasErrors()) {
-				Util.printErrors(errors);
-				throw new JcResultException(errors);
-			}
-			
-		} catch(Throwable e) {
-			throw new RuntimeException(e);
-		} finally {
-			try {
-				ir.close();
-			} catch (Throwable e) {}
+		// the dump is loaded in batches, every batch is committed on its own;
+		// nodes and then relations are created by parallel workers
+		// (only when the database is pooled, i.e. accessed remotely)
+		CypherDumpLoader loader = Config.isPooled() ?
+				new ParallelCypherDumpLoader(Config.getDBAccessPool()) : new CypherDumpLoader(dbAccess);
+		errors = loader.load("/load/generic_people_domain.txt");
+		if (errors.size() > 0) {
+			Util.printErrors(errors);
+			throw new JcResultException(errors);
 		}
 	}
 	
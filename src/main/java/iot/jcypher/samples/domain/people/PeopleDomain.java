@@ -36,6 +36,7 @@ import iot.jcypher.samples.domain.people.model.AreaType;
 import iot.jcypher.samples.domain.people.model.Person;
 import iot.jcypher.samples.domain.people.model.Subject;
 import iot.jcypher.samples.domain.people.util.CompareUtil;
+import iot.jcypher.samples.domain.people.util.ParallelCompareUtil;
 import iot.jcypher.samples.domain.people.util.Util;
 import iot.jcypher.transaction.ITransaction;
 import iot.jcypher.util.QueriesPrintObserver;
@@ -166,8 +167,9 @@ public class PeopleDomain {
 		List<Object> loadedDomainObjects = domainAccess_2.loadByIds(Object.class, -1, ids);
 		
 		// Check if the loaded graph of domain objects equals the initially created one.
-		// The utility class will do this check for you
-		boolean equals = CompareUtil.equalsObjects(createdDomainObjects, loadedDomainObjects);
+		// The utility class will do this check for you,
+		// ParallelCompareUtil compares the list elements on all available cores.
+		boolean equals = ParallelCompareUtil.equalsObjects(createdDomainObjects, loadedDomainObjects);
 		
 		// If you don't know the ids of the stored objects, which will most commonly be the case,
 		// you can load domain objects by type.
@@ -189,8 +191,9 @@ public class PeopleDomain {
 		
 		// Once again check if the loaded graph of domain objects equals the initially created one.
 		// Use the method 'equalsUnorderedList(...)', as the content of the two lists will be the same
-		// but will probably not be in the same order
-		equals = CompareUtil.equalsUnorderedList(createdDomainObjects, loadedDomainObjects_2);
+		// but will probably not be in the same order.
+		// With fingerprints, only elements with the same structural fingerprint are compared.
+		equals = CompareUtil.equalsUnorderedList(createdDomainObjects, loadedDomainObjects_2, true);
 		
 		// You can query the total number of instances of a certain type stored in the domain graph.
 		// The number of stored instances of the specified type and of all its subtypes is returned.
@@ -0,0 +1,434 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people;
+
+import iot.jcypher.samples.domain.people.model.Address;
+import iot.jcypher.samples.domain.people.model.Area;
+import iot.jcypher.samples.domain.people.model.AreaType;
+import iot.jcypher.samples.domain.people.model.Company;
+import iot.jcypher.samples.domain.people.model.EContact;
+import iot.jcypher.samples.domain.people.model.EContact.EContactType;
+import iot.jcypher.samples.domain.people.model.Gender;
+import iot.jcypher.samples.domain.people.model.Person;
+import iot.jcypher.samples.domain.people.model.PointOfContact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Creates a synthetic population of configurable size.
+ * <br/>In contrast to Population, which creates a small, fixed sample,
+ * the generator creates families (with mother / father links across generations),
+ * households sharing their addresses, companies
+ * and an Area hierarchy (linked via partOf) of configurable depth.
+ * <br/>Given the same seed and the same configuration, the generator
+ * always creates the same object graph.
+ */
+public class PopulationGenerator {
+
+	private static final String[] MALE_NAMES = new String[] {"John", "Jeremy", "Hans", "Max",
+		"Fritz", "Jim", "Herbert", "Clark", "Bill", "Peter", "Paul", "George", "Frank", "Tom"};
+	private static final String[] FEMALE_NAMES = new String[] {"Caroline", "Angelina", "Gerda",
+		"Christa", "Hannah", "Sarah", "Mary", "Anna", "Laura", "Emma", "Julia", "Lisa", "Eva"};
+	private static final String[] LAST_NAMES = new String[] {"Smith", "Berghammer", "Watson",
+		"Clark", "Maier", "Kent", "Collins", "Miller", "Huber", "Wagner", "Brown", "Taylor",
+		"Fischer", "Baker", "Young", "Schneider", "Wilson", "Gruber", "Moore", "Hofer"};
+	private static final String[] EYE_COLORS = new String[] {"brown", "blue", "green", "gray", "black"};
+	private static final String[] STREETS = new String[] {"Market Street", "Broadway", "Pearl Street",
+		"Kearny Street", "Union Square", "Hochstrasse", "Schiller Strasse", "Lackner Gasse",
+		"Schweden Platz", "Main Street", "Park Avenue", "Ring Strasse"};
+	private static final AreaType[] AREA_LEVELS = new AreaType[] {AreaType.PLANET, AreaType.CONTINENT,
+		AreaType.COUNTRY, AreaType.STATE, AreaType.CITY, AreaType.URBAN_DISTRICT, AreaType.DISTRICT};
+
+	private Random random;
+	private long seed;
+	private int numberOfPersons;
+	private int familyBranching;
+	private int generations;
+	private int areaDepth;
+	private int areaBranching;
+	private double[] pointsOfContactDistribution;
+	private double eContactRatio;
+	private int personsPerCompany;
+
+	private Area earth;
+	private List<Area> areas;
+	private List<Area> leafAreas;
+	private int personsCreated;
+	private int companiesCreated;
+
+	/**
+	 * @param seed the seed of the random generator,
+	 * the same seed and configuration always results in the same population.
+	 */
+	public PopulationGenerator(long seed) {
+		super();
+		this.seed = seed;
+		this.numberOfPersons = 1000;
+		this.familyBranching = 2;
+		this.generations = 3;
+		this.areaDepth = 5;
+		this.areaBranching = 4;
+		this.pointsOfContactDistribution = new double[] {0.05, 0.75, 0.15, 0.05};
+		this.eContactRatio = 0.3;
+		this.personsPerCompany = 100;
+	}
+
+	/**
+	 * create the population,
+	 * @return a list of root objects of the created object graph
+	 * (all persons and companies).
+	 */
+	public List<Object> createPopulation() {
+		reset();
+		List<Object> domainObjects = new ArrayList<Object>();
+		while (this.personsCreated < this.numberOfPersons) {
+			createFamily(domainObjects);
+			createCompanies(domainObjects);
+		}
+		return domainObjects;
+	}
+
+	/**
+	 * answer the root of the Area hierarchy (the planet).
+	 * The hierarchy is shared by all households and companies created by this generator.
+	 * @return the root Area
+	 */
+	public Area getEarth() {
+		if (this.earth == null)
+			createAreas();
+		return this.earth;
+	}
+
+	/**
+	 * answer all Areas of the hierarchy, parents are listed before their parts.
+	 * @return a list of Areas
+	 */
+	public List<Area> getAreas() {
+		if (this.earth == null)
+			createAreas();
+		return this.areas;
+	}
+
+	/**
+	 * answer the number of persons created so far
+	 * @return the number of persons
+	 */
+	public int getPersonsCreated() {
+		return personsCreated;
+	}
+
+	/**
+	 * @param numberOfPersons the total number of persons to create
+	 */
+	public void setNumberOfPersons(int numberOfPersons) {
+		if (numberOfPersons < 0)
+			throw new IllegalArgumentException("number of persons must not be negative");
+		this.numberOfPersons = numberOfPersons;
+	}
+
+	/**
+	 * @param familyBranching the average number of children per couple
+	 */
+	public void setFamilyBranching(int familyBranching) {
+		if (familyBranching < 0)
+			throw new IllegalArgumentException("family branching must not be negative");
+		this.familyBranching = familyBranching;
+	}
+
+	/**
+	 * @param generations the number of generations of a family (at least 1)
+	 */
+	public void setGenerations(int generations) {
+		if (generations < 1)
+			throw new IllegalArgumentException("number of generations must be at least 1");
+		this.generations = generations;
+	}
+
+	/**
+	 * @param areaDepth the number of levels of the Area hierarchy
+	 * (1 = planet only, up to 7 = down to districts).
+	 * If the hierarchy has already been created, it is discarded and created anew.
+	 */
+	public void setAreaDepth(int areaDepth) {
+		if (areaDepth < 1 || areaDepth > AREA_LEVELS.length)
+			throw new IllegalArgumentException("area depth must be between 1 and " + AREA_LEVELS.length);
+		if (areaDepth != this.areaDepth)
+			discardAreas();
+		this.areaDepth = areaDepth;
+	}
+
+	/**
+	 * @param areaBranching the number of parts of every Area
+	 * which is not on the lowest level of the hierarchy.
+	 * If the hierarchy has already been created, it is discarded and created anew.
+	 */
+	public void setAreaBranching(int areaBranching) {
+		if (areaBranching < 1)
+			throw new IllegalArgumentException("area branching must be at least 1");
+		if (areaBranching != this.areaBranching)
+			discardAreas();
+		this.areaBranching = areaBranching;
+	}
+
+	/**
+	 * @param pointsOfContactDistribution the relative frequency of households
+	 * with 0, 1, 2, ... addresses; the value at index i is the weight for i addresses.
+	 * At least one weight must be given, weights must not be negative, and their sum must be greater than 0.
+	 */
+	public void setPointsOfContactDistribution(double... pointsOfContactDistribution) {
+		if (pointsOfContactDistribution == null || pointsOfContactDistribution.length == 0)
+			throw new IllegalArgumentException("points of contact distribution must not be empty");
+		double total = 0;
+		for (double w : pointsOfContactDistribution) {
+			if (!(w >= 0) || Double.isInfinite(w))
+				throw new IllegalArgumentException("points of contact weights must be finite and not negative");
+			total += w;
+		}
+		if (total <= 0)
+			throw new IllegalArgumentException("the sum of points of contact weights must be greater than 0");
+		this.pointsOfContactDistribution = pointsOfContactDistribution.clone();
+	}
+
+	/**
+	 * @param eContactRatio the probability for a person to have an EContact (email or telephone)
+	 */
+	public void setEContactRatio(double eContactRatio) {
+		if (!(eContactRatio >= 0 && eContactRatio <= 1))
+			throw new IllegalArgumentException("EContact ratio must be between 0 and 1");
+		this.eContactRatio = eContactRatio;
+	}
+
+	/**
+	 * @param personsPerCompany create one company for every given number of persons,
+	 * 0 means create no companies.
+	 */
+	public void setPersonsPerCompany(int personsPerCompany) {
+		if (personsPerCompany < 0)
+			throw new IllegalArgumentException("persons per company must not be negative");
+		this.personsPerCompany = personsPerCompany;
+	}
+
+	/**
+	 * restart the generator, the next population created will be the same as the first one.
+	 * <br/>The Area hierarchy does not depend on the seed, it is kept.
+	 */
+	void reset() {
+		this.random = new Random(this.seed);
+		this.personsCreated = 0;
+		this.companiesCreated = 0;
+		if (this.earth == null)
+			createAreas();
+	}
+
+	/**
+	 * the Area hierarchy is created anew on next use,
+	 * Areas answered before are not referenced by persons and companies created afterwards
+	 */
+	private void discardAreas() {
+		this.earth = null;
+		this.areas = null;
+		this.leafAreas = null;
+	}
+
+	/**
+	 * answer true, if not all persons have been created yet
+	 * @return true, if more persons are to be created
+	 */
+	boolean hasMorePersons() {
+		return this.personsCreated < this.numberOfPersons;
+	}
+
+	/**
+	 * create a family (a founding couple and their descendants),
+	 * add the persons to the list of root objects.
+	 * <br/>The family is cut short when the number of persons is reached
+	 * (if only one person is left, it lives alone).
+	 * @param domainObjects
+	 * @return the number of persons created
+	 */
+	int createFamily(List<Object> domainObjects) {
+		if (this.random == null)
+			reset();
+		int before = this.personsCreated;
+		if (!hasMorePersons())
+			return 0;
+		String lastName = pick(LAST_NAMES);
+		Person father = createPerson(pick(MALE_NAMES), lastName, Gender.MALE);
+		domainObjects.add(father);
+		List<PointOfContact> household;
+		if (hasMorePersons()) {
+			Person mother = createPerson(pick(FEMALE_NAMES), lastName, Gender.FEMALE);
+			domainObjects.add(mother);
+			household = createHousehold();
+			addPointsOfContact(father, household);
+			addPointsOfContact(mother, household);
+			createChildren(father, mother, household, 1, domainObjects);
+		} else {
+			household = createHousehold();
+			addPointsOfContact(father, household);
+		}
+		return this.personsCreated - before;
+	}
+
+	/**
+	 * create the companies which are due with respect to the number of persons created so far,
+	 * add them to the list of root objects.
+	 * @param domainObjects
+	 * @return the number of companies created
+	 */
+	int createCompanies(List<Object> domainObjects) {
+		if (this.personsPerCompany <= 0)
+			return 0;
+		int num = 0;
+		while (this.companiesDue() > 0) {
+			Company company = new Company();
+			company.setName(pick(LAST_NAMES).concat(" ").concat(pick(LAST_NAMES))
+					.concat(" Ltd. ").concat(String.valueOf(this.companiesCreated)));
+			company.getPointsOfContact().add(createAddress());
+			domainObjects.add(company);
+			this.companiesCreated++;
+			num++;
+		}
+		return num;
+	}
+
+	private int companiesDue() {
+		return this.personsCreated / this.personsPerCompany - this.companiesCreated;
+	}
+
+	private void createChildren(Person father, Person mother, List<PointOfContact> household,
+			int generation, List<Object> domainObjects) {
+		if (generation >= this.generations)
+			return;
+		int numChildren = this.familyBranching <= 0 ? 0 :
+			1 + this.random.nextInt(2 * this.familyBranching - 1);
+		for (int i = 0; i < numChildren && hasMorePersons(); i++) {
+			Gender gender = this.random.nextBoolean() ? Gender.MALE : Gender.FEMALE;
+			String firstName = gender == Gender.MALE ? pick(MALE_NAMES) : pick(FEMALE_NAMES);
+			Person child = createPerson(firstName, father.getLastName(), gender);
+			child.setFather(father);
+			child.setMother(mother);
+			domainObjects.add(child);
+
+			if (generation + 1 < this.generations && hasMorePersons()) {
+				// the child has grown up, founds its own household with a partner
+				List<PointOfContact> ownHousehold = createHousehold();
+				addPointsOfContact(child, ownHousehold);
+				Person partner;
+				if (gender == Gender.MALE) {
+					partner = createPerson(pick(FEMALE_NAMES), child.getLastName(), Gender.FEMALE);
+					addPointsOfContact(partner, ownHousehold);
+					domainObjects.add(partner);
+					createChildren(child, partner, ownHousehold, generation + 1, domainObjects);
+				} else {
+					partner = createPerson(pick(MALE_NAMES), pick(LAST_NAMES), Gender.MALE);
+					addPointsOfContact(partner, ownHousehold);
+					domainObjects.add(partner);
+					createChildren(partner, child, ownHousehold, generation + 1, domainObjects);
+				}
+			} else
+				addPointsOfContact(child, household);
+		}
+	}
+
+	private Person createPerson(String firstName, String lastName, Gender gender) {
+		Person person = new Person(firstName, lastName, gender, pick(EYE_COLORS));
+		if (this.random.nextDouble() < this.eContactRatio) {
+			if (this.random.nextBoolean())
+				person.getPointsOfContact().add(new EContact(EContactType.EMAIL,
+					firstName.toLowerCase().charAt(0) + "." + lastName.toLowerCase()
+					+ this.personsCreated + "@email.people"));
+			else
+				person.getPointsOfContact().add(new EContact(EContactType.TELEPHONE,
+					"+1 555 " + (1000000 + this.personsCreated)));
+		}
+		this.personsCreated++;
+		return person;
+	}
+
+	private void addPointsOfContact(Person person, List<PointOfContact> household) {
+		// addresses are shared by all members of a household
+		person.getPointsOfContact().addAll(0, household);
+	}
+
+	private List<PointOfContact> createHousehold() {
+		int num = pickWeighted(this.pointsOfContactDistribution);
+		List<PointOfContact> ret = new ArrayList<PointOfContact>(num);
+		for (int i = 0; i < num; i++)
+			ret.add(createAddress());
+		return ret;
+	}
+
+	private Address createAddress() {
+		Address address = new Address(pick(STREETS), 1 + this.random.nextInt(200));
+		// the hierarchy may have been discarded by a setter while creating a population
+		if (this.earth == null)
+			createAreas();
+		address.setArea(this.leafAreas.get(this.random.nextInt(this.leafAreas.size())));
+		return address;
+	}
+
+	private void createAreas() {
+		this.areas = new ArrayList<Area>();
+		this.earth = new Area(null, "Earth", AreaType.PLANET);
+		this.areas.add(this.earth);
+		List<Area> level = new ArrayList<Area>();
+		level.add(this.earth);
+		for (int depth = 1; depth < this.areaDepth; depth++) {
+			AreaType areaType = AREA_LEVELS[depth];
+			List<Area> nextLevel = new ArrayList<Area>(level.size() * this.areaBranching);
+			for (Area parent : level) {
+				for (int i = 0; i < this.areaBranching; i++) {
+					String name = parent == this.earth ? areaName(areaType) + " " + (i + 1)
+							: parent.getName() + "." + (i + 1);
+					String areaCode = areaType == AreaType.COUNTRY || areaType == AreaType.URBAN_DISTRICT
+							? String.valueOf(nextLevel.size() + 1) : null;
+					Area area = new Area(areaCode, name, areaType);
+					area.setPartOf(parent);
+					nextLevel.add(area);
+				}
+			}
+			this.areas.addAll(nextLevel);
+			level = nextLevel;
+		}
+		this.leafAreas = level;
+	}
+
+	private String areaName(AreaType areaType) {
+		String nm = areaType.name().replace('_', ' ').toLowerCase();
+		return Character.toUpperCase(nm.charAt(0)) + nm.substring(1);
+	}
+
+	private String pick(String[] values) {
+		return values[this.random.nextInt(values.length)];
+	}
+
+	private int pickWeighted(double[] weights) {
+		double total = 0;
+		for (double w : weights)
+			total += w;
+		double r = this.random.nextDouble() * total;
+		for (int i = 0; i < weights.length; i++) {
+			r -= weights[i];
+			if (r < 0)
+				return i;
+		}
+		return weights.length - 1;
+	}
+}
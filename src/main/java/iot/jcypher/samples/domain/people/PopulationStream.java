@@ -0,0 +1,94 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people;
+
+import iot.jcypher.samples.domain.people.model.Area;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Produces the population of a PopulationGenerator in chunks of root objects
+ * (families and companies), instead of building the entire object graph at once.
+ * <br/>A chunk is created only when it is requested, and it is not referenced
+ * by the stream afterwards, so memory consumption does not depend on the size of the population.
+ * <br/>A family is never split across chunks, so a chunk may contain slightly more
+ * root objects than the chunk size.
+ * <br/>All chunks share the same Area hierarchy (see getAreas()).
+ */
+public class PopulationStream implements Iterator<List<Object>> {
+
+	private PopulationGenerator generator;
+	private int chunkSize;
+
+	/**
+	 * @param generator the configured generator
+	 * @param chunkSize the (minimum) number of root objects per chunk
+	 */
+	public PopulationStream(PopulationGenerator generator, int chunkSize) {
+		super();
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("chunk size must be greater than 0");
+		this.generator = generator;
+		this.chunkSize = chunkSize;
+		this.generator.reset();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.generator.hasMorePersons();
+	}
+
+	/**
+	 * answer the next chunk of root objects
+	 */
+	@Override
+	public List<Object> next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		List<Object> chunk = new ArrayList<Object>(this.chunkSize + 16);
+		while (chunk.size() < this.chunkSize && this.generator.hasMorePersons()) {
+			this.generator.createFamily(chunk);
+			this.generator.createCompanies(chunk);
+		}
+		return chunk;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("remove");
+	}
+
+	/**
+	 * answer all Areas of the hierarchy shared by all chunks,
+	 * parents are listed before their parts.
+	 * @return a list of Areas
+	 */
+	public List<Area> getAreas() {
+		return this.generator.getAreas();
+	}
+
+	/**
+	 * answer the number of persons produced so far
+	 * @return the number of persons
+	 */
+	public int getPersonsProduced() {
+		return this.generator.getPersonsCreated();
+	}
+}
@@ -0,0 +1,205 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.samples.domain.people.model.Address;
+import iot.jcypher.samples.domain.people.model.Area;
+import iot.jcypher.transaction.ITransaction;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores large numbers of domain objects in chunks,
+ * instead of passing all of them to a single IDomainAccess.store(..) call.
+ * <br/>Every chunk is stored in a transaction of its own (if not switched off),
+ * errors are aggregated per chunk in a BulkStoreResult.
+ * <br/>An IDomainAccess keeps track of all objects stored through it. In order to keep memory
+ * consumption bounded, the IDomainAccess can be replaced by a fresh one after a given number of chunks.
+ * Chunks must then be independent of each other (a list is cut into chunks at family boundaries),
+ * except for Areas. Areas are stored only once (see SharedAreas), if no SharedAreas are given,
+ * the Areas referenced by the chunks are collected while storing.
+ */
+public class BulkStore {
+
+	private int chunkSize;
+	private boolean transactional;
+	private boolean stopOnError;
+	private int chunksPerDomainAccess;
+	private SharedAreas sharedAreas;
+
+	public BulkStore() {
+		super();
+		this.chunkSize = 1000;
+		this.transactional = true;
+		this.stopOnError = false;
+		this.chunksPerDomainAccess = 0;
+	}
+
+	/**
+	 * store the given root objects (and the object graphs reachable from them)
+	 * in chunks of (at least) the configured size. A family is never split across chunks
+	 * (see ParallelStore.partition(..)), so the root objects may be stored in a different order.
+	 * @param domainObjects
+	 * @return a BulkStoreResult
+	 */
+	public BulkStoreResult store(List<?> domainObjects) {
+		List<List<?>> chunks = new ArrayList<List<?>>();
+		List<Object> chunk = new ArrayList<Object>();
+		for (List<Object> family : ParallelStore.partition(domainObjects)) {
+			chunk.addAll(family);
+			if (chunk.size() >= this.chunkSize) {
+				chunks.add(chunk);
+				chunk = new ArrayList<Object>();
+			}
+		}
+		if (!chunk.isEmpty())
+			chunks.add(chunk);
+		return store(chunks.iterator());
+	}
+
+	/**
+	 * store chunks of root objects as they are produced by the given iterator
+	 * (e.g. a PopulationStream). Only one chunk is held at a time.
+	 * @param chunks
+	 * @return a BulkStoreResult
+	 */
+	public BulkStoreResult store(Iterator<? extends List<?>> chunks) {
+		BulkStoreResult result = new BulkStoreResult();
+		SharedAreas areas = this.sharedAreas;
+		if (areas == null && this.chunksPerDomainAccess > 0)
+			areas = new SharedAreas();
+		// Areas are stored through an IDomainAccess of their own
+		IDomainAccess areasAccess = areas != null ? createDomainAccess() : null;
+		IDomainAccess domainAccess = null;
+		SharedAreas.Binding binding = null;
+		int chunkIndex = 0;
+		int chunksOnDomainAccess = 0;
+		while (chunks.hasNext()) {
+			if (domainAccess == null || (this.chunksPerDomainAccess > 0 &&
+					chunksOnDomainAccess >= this.chunksPerDomainAccess)) {
+				domainAccess = createDomainAccess();
+				chunksOnDomainAccess = 0;
+				if (areas != null)
+					binding = areas.bindTo(domainAccess);
+			}
+			List<?> chunk = chunks.next();
+			List<JcError> errors;
+			if (areas != null) {
+				errors = areas.storeReferencedBy(chunk, areasAccess);
+				if (errors.isEmpty()) {
+					Map<Address, Area> originals = binding.rebind(chunk);
+					try {
+						errors = storeChunk(domainAccess, areas.withoutAreas(chunk));
+					} finally {
+						SharedAreas.restore(originals);
+					}
+				}
+			} else
+				errors = storeChunk(domainAccess, chunk);
+			if (errors.isEmpty())
+				result.chunkStored(chunk.size());
+			else {
+				result.chunkFailed(chunkIndex, errors);
+				if (this.stopOnError)
+					break;
+			}
+			chunkIndex++;
+			chunksOnDomainAccess++;
+		}
+		return result;
+	}
+
+	/**
+	 * store one chunk, in a transaction of its own if configured to do so
+	 * @param domainAccess
+	 * @param chunk
+	 * @return a list of errors, which is empty if storing was successful
+	 */
+	List<JcError> storeChunk(IDomainAccess domainAccess, List<?> chunk) {
+		if (!this.transactional)
+			return domainAccess.store(chunk);
+		List<JcError> errors = new ArrayList<JcError>();
+		ITransaction tx = domainAccess.beginTX();
+		try {
+			errors.addAll(domainAccess.store(chunk));
+		} catch (RuntimeException e) {
+			errors.add(new JcError("BulkStore", e.getMessage(), e.getClass().getName()));
+		} finally {
+			if (!errors.isEmpty())
+				tx.failure();
+			errors.addAll(tx.close());
+		}
+		return errors;
+	}
+
+	/**
+	 * answer a new IDomainAccess to store chunks through.
+	 * @return a new IDomainAccess
+	 */
+	protected IDomainAccess createDomainAccess() {
+		return Config.createDomainAccess();
+	}
+
+	/**
+	 * @param chunkSize the minimum number of root objects stored in one round-trip
+	 * (when storing a list, chunks produced by an iterator are stored as they are)
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("chunk size must be greater than 0");
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @param transactional if true (the default), every chunk is stored in a transaction of its own
+	 */
+	public void setTransactional(boolean transactional) {
+		this.transactional = transactional;
+	}
+
+	/**
+	 * @param stopOnError if true, stop storing after the first failed chunk,
+	 * if false (the default), continue and aggregate the errors.
+	 */
+	public void setStopOnError(boolean stopOnError) {
+		this.stopOnError = stopOnError;
+	}
+
+	/**
+	 * @param chunksPerDomainAccess the number of chunks stored through one IDomainAccess,
+	 * before it is replaced by a fresh one; 0 (the default) means never replace it.
+	 */
+	public void setChunksPerDomainAccess(int chunksPerDomainAccess) {
+		if (chunksPerDomainAccess < 0)
+			throw new IllegalArgumentException("chunks per domain access must not be negative");
+		this.chunksPerDomainAccess = chunksPerDomainAccess;
+	}
+
+	/**
+	 * @param sharedAreas Areas referenced by many chunks, they are stored once
+	 * and resolved by id in every IDomainAccess used by this BulkStore.
+	 * Areas referenced by chunks, which are not yet shared, are added to them.
+	 */
+	public void setSharedAreas(SharedAreas sharedAreas) {
+		this.sharedAreas = sharedAreas;
+	}
+}
@@ -0,0 +1,93 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.query.result.JcError;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The outcome of a bulk store, errors are aggregated per chunk.
+ */
+public class BulkStoreResult {
+
+	private int chunksStored;
+	private long objectsStored;
+	private Map<Integer, List<JcError>> chunkErrors;
+
+	public BulkStoreResult() {
+		super();
+		this.chunkErrors = new TreeMap<Integer, List<JcError>>();
+	}
+
+	/**
+	 * answer true, if at least one chunk failed
+	 * @return true if there are errors
+	 */
+	public synchronized boolean hasErrors() {
+		return !this.chunkErrors.isEmpty();
+	}
+
+	/**
+	 * answer the errors of all failed chunks
+	 * @return a list of errors
+	 */
+	public synchronized List<JcError> getErrors() {
+		List<JcError> ret = new ArrayList<JcError>();
+		for (List<JcError> errors : this.chunkErrors.values())
+			ret.addAll(errors);
+		return ret;
+	}
+
+	/**
+	 * answer the errors per failed chunk, keys are the indices of the failed chunks
+	 * (index -1 denotes a failure to store shared Areas)
+	 * @return a map of chunk index to errors
+	 */
+	public synchronized Map<Integer, List<JcError>> getChunkErrors() {
+		return Collections.unmodifiableMap(new TreeMap<Integer, List<JcError>>(this.chunkErrors));
+	}
+
+	/**
+	 * answer the number of successfully stored chunks
+	 * @return the number of chunks
+	 */
+	public synchronized int getChunksStored() {
+		return chunksStored;
+	}
+
+	/**
+	 * answer the number of root objects in successfully stored chunks
+	 * @return the number of root objects
+	 */
+	public synchronized long getObjectsStored() {
+		return objectsStored;
+	}
+
+	synchronized void chunkStored(int numObjects) {
+		this.chunksStored++;
+		this.objectsStored += numObjects;
+	}
+
+	synchronized void chunkFailed(int chunkIndex, List<JcError> errors) {
+		this.chunkErrors.put(Integer.valueOf(chunkIndex), errors);
+	}
+}
@@ -0,0 +1,166 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domainquery.CountQueryResult;
+import iot.jcypher.domainquery.DomainQueryResult;
+import iot.jcypher.domainquery.api.DomainObjectMatch;
+
+import java.util.List;
+
+/**
+ * The result of a domain query executed through a QueryResultCache.
+ * <br/>Results are retrieved via the DomainObjectMatch(es) of the executed query,
+ * even if the result was produced by an earlier execution of an equal query.
+ * The result of a match is retrieved on first access and then kept, so only matches which are actually read
+ * are retrieved. When the query is executed again through the QueryResultCache,
+ * the results not yet retrieved are retrieved before, so they stay valid.
+ */
+public class CachedQueryResult {
+
+	private Entry entry;
+	private List<DomainObjectMatch<?>> matches;
+	private boolean fromCache;
+
+	CachedQueryResult(Entry entry, List<DomainObjectMatch<?>> matches, boolean fromCache) {
+		super();
+		this.entry = entry;
+		this.matches = matches;
+		this.fromCache = fromCache;
+	}
+
+	/**
+	 * answer the domain objects matched by the given DomainObjectMatch
+	 * (the query must have been executed via QueryResultCache.execute(..))
+	 * @param match a DomainObjectMatch of the executed query
+	 * @return a list of domain objects
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> resultOf(DomainObjectMatch<T> match) {
+		if (this.entry.count)
+			throw new IllegalStateException("query was executed as count query");
+		return (List<T>) this.entry.resultOf(indexOf(match));
+	}
+
+	/**
+	 * answer the number of domain objects matched by the given DomainObjectMatch
+	 * (the query must have been executed via QueryResultCache.executeCount(..))
+	 * @param match a DomainObjectMatch of the executed query
+	 * @return the number of matching domain objects
+	 */
+	public long countOf(DomainObjectMatch<?> match) {
+		if (!this.entry.count)
+			throw new IllegalStateException("query was not executed as count query");
+		return this.entry.countOf(indexOf(match));
+	}
+
+	/**
+	 * answer true if the result was served from the cache
+	 * @return true if no query was executed against the database
+	 */
+	public boolean isFromCache() {
+		return fromCache;
+	}
+
+	private int indexOf(DomainObjectMatch<?> match) {
+		for (int i = 0; i < this.matches.size(); i++) {
+			if (this.matches.get(i) == match)
+				return i;
+		}
+		throw new IllegalArgumentException("match is not part of the executed query");
+	}
+
+	/*********************************************/
+	/**
+	 * the result of one query execution, shared among equal queries
+	 */
+	static class Entry {
+		private boolean count;
+		private List<DomainObjectMatch<?>> matches;
+		// the source of results not yet retrieved,
+		// a DomainQueryResult or CountQueryResult reads the state of its query,
+		// which is replaced when the query is executed again
+		private DomainQueryResult result;
+		private CountQueryResult countResult;
+		// per match the retrieved result list or count, null if not yet retrieved
+		private Object[] retrieved;
+		private int toRetrieve;
+		private List<Class<?>> types;
+		private long expiresAt;
+
+		Entry(List<DomainObjectMatch<?>> matches, DomainQueryResult result,
+				CountQueryResult countResult, List<Class<?>> types, long expiresAt) {
+			super();
+			this.count = countResult != null;
+			this.matches = matches;
+			this.result = result;
+			this.countResult = countResult;
+			this.retrieved = new Object[matches.size()];
+			this.toRetrieve = matches.size();
+			this.types = types;
+			this.expiresAt = expiresAt;
+		}
+
+		List<?> resultOf(int index) {
+			return (List<?>) retrieve(index);
+		}
+
+		long countOf(int index) {
+			return ((Long) retrieve(index)).longValue();
+		}
+
+		/**
+		 * retrieve the results of all matches not yet retrieved,
+		 * must be called before the query is executed again
+		 */
+		synchronized void detach() {
+			for (int i = 0; i < this.retrieved.length && this.toRetrieve > 0; i++)
+				retrieve(i);
+		}
+
+		private synchronized Object retrieve(int index) {
+			Object res = this.retrieved[index];
+			if (res == null) {
+				DomainObjectMatch<?> match = this.matches.get(index);
+				if (this.count)
+					res = Long.valueOf(this.countResult.countOf(match));
+				else
+					res = this.result.resultOf(match);
+				this.retrieved[index] = res;
+				if (--this.toRetrieve == 0) {
+					// everything is retrieved, release the query
+					this.result = null;
+					this.countResult = null;
+					this.matches = null;
+				}
+			}
+			return res;
+		}
+
+		boolean isExpired(long now) {
+			return now >= this.expiresAt;
+		}
+
+		boolean dependsOn(Class<?> type) {
+			for (Class<?> t : this.types) {
+				if (t.isAssignableFrom(type) || type.isAssignableFrom(t))
+					return true;
+			}
+			return false;
+		}
+	}
+}
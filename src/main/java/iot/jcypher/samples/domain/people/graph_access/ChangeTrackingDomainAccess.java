@@ -0,0 +1,258 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.concurrency.Locking;
+import iot.jcypher.database.IDBAccess;
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domain.SyncInfo;
+import iot.jcypher.domain.mapping.MappingUtil;
+import iot.jcypher.query.JcQuery;
+import iot.jcypher.query.JcQueryResult;
+import iot.jcypher.query.api.IClause;
+import iot.jcypher.query.factories.clause.DO;
+import iot.jcypher.query.factories.clause.MATCH;
+import iot.jcypher.query.factories.clause.WHERE;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.query.values.JcNode;
+import iot.jcypher.samples.domain.people.util.DomainObjectWalker;
+import iot.jcypher.samples.domain.people.util.ModelComparators;
+import iot.jcypher.samples.domain.people.util.ModelComparators.ModelComparator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An IDomainAccess which tracks changes of the domain objects it has loaded or stored.
+ * <br/>The state of every loaded or stored object (and of the objects reachable from it)
+ * is remembered. When storing, only objects which have changed since are written:
+ * <br/>- if only simple attributes (Strings, numbers, booleans, dates) of an object have changed,
+ * the properties of its node are set directly, by node id.
+ * <br/>- objects with changed references, lists or other attributes,
+ * and objects which are not tracked (e.g. new objects), are stored through the wrapped IDomainAccess.
+ * <br/>So updating a person's eye color sets one property of one node,
+ * it does not re-store the Areas referenced by the person's addresses.
+ * <br/>Note: Objects loaded via domain queries are not tracked, they are stored completely.
+ * With optimistic locking, all changed objects are stored through the wrapped IDomainAccess
+ * (which maintains the versions).
+ */
+public class ChangeTrackingDomainAccess extends DelegatingDomainAccess {
+
+	private IDBAccess dbAccess;
+	private Map<Object, Object[]> snapshots;
+	private boolean directUpdates;
+	private long nodesUpdated;
+	private long objectsStored;
+
+	/**
+	 * @param delegate the IDomainAccess to wrap
+	 * @param dbAccess the IDBAccess of the wrapped IDomainAccess, to update properties directly
+	 */
+	public ChangeTrackingDomainAccess(IDomainAccess delegate, IDBAccess dbAccess) {
+		super(delegate);
+		this.dbAccess = dbAccess;
+		this.snapshots = new IdentityHashMap<Object, Object[]>();
+		this.directUpdates = true;
+	}
+
+	@Override
+	public <T> List<T> loadByIds(Class<T> domainObjectClass, int resolutionDepth, long... ids) {
+		List<T> loaded = this.delegate.loadByIds(domainObjectClass, resolutionDepth, ids);
+		track(loaded);
+		return loaded;
+	}
+
+	@Override
+	public <T> T loadById(Class<T> domainObjectClass, int resolutionDepth, long id) {
+		T loaded = this.delegate.loadById(domainObjectClass, resolutionDepth, id);
+		if (loaded != null)
+			track(Arrays.asList(loaded));
+		return loaded;
+	}
+
+	@Override
+	public <T> List<T> loadByType(Class<T> domainObjectClass, int resolutionDepth, int offset, int count) {
+		List<T> loaded = this.delegate.loadByType(domainObjectClass, resolutionDepth, offset, count);
+		track(loaded);
+		return loaded;
+	}
+
+	@Override
+	public List<JcError> store(Object domainObject) {
+		return store(Arrays.asList(domainObject));
+	}
+
+	@Override
+	public List<JcError> store(List<?> domainObjects) {
+		List<Object> reachable = DomainObjectWalker.collect(domainObjects);
+		List<Object> toStore = new ArrayList<Object>();
+		List<Object> toUpdate = new ArrayList<Object>();
+		List<JcQuery> updates = new ArrayList<JcQuery>();
+		for (Object obj : reachable) {
+			Object[] snapshot = this.snapshots.get(obj);
+			ModelComparator comparator = ModelComparators.comparatorFor(obj.getClass());
+			if (snapshot == null || comparator == null) {
+				toStore.add(obj);
+				continue;
+			}
+			List<Integer> changed = new ArrayList<Integer>();
+			boolean structural = false;
+			for (int i = 0; i < comparator.getFieldCount(); i++) {
+				Object value = comparator.getFieldValue(i, obj);
+				if (!isModified(snapshot[i], value, comparator.isSimpleField(i)))
+					continue;
+				if (!comparator.isPropertyField(i)) {
+					structural = true;
+					break;
+				}
+				changed.add(Integer.valueOf(i));
+			}
+			if (changed.isEmpty() && !structural)
+				continue;
+			SyncInfo syncInfo = this.delegate.getSyncInfo(obj);
+			if (structural || !this.directUpdates || syncInfo == null || syncInfo.getId() < 0)
+				toStore.add(obj);
+			else {
+				toUpdate.add(obj);
+				updates.add(createUpdate(syncInfo.getId(), obj, comparator, changed));
+			}
+		}
+
+		List<JcError> errors = new ArrayList<JcError>();
+		if (!toStore.isEmpty())
+			errors.addAll(this.delegate.store(toStore));
+		if (errors.isEmpty() && !updates.isEmpty()) {
+			List<JcQueryResult> results = this.dbAccess.execute(updates);
+			errors.addAll(iot.jcypher.util.Util.collectErrors(results));
+		}
+		if (errors.isEmpty()) {
+			this.objectsStored += toStore.size();
+			this.nodesUpdated += toUpdate.size();
+			track(toStore);
+			for (Object obj : toUpdate)
+				this.snapshots.put(obj, takeSnapshot(obj, ModelComparators.comparatorFor(obj.getClass())));
+		}
+		return errors;
+	}
+
+	@Override
+	public IDomainAccess setLockingStrategy(Locking locking) {
+		super.setLockingStrategy(locking);
+		this.directUpdates = locking == Locking.NONE;
+		return this;
+	}
+
+	/**
+	 * answer the number of nodes whose properties were set directly
+	 * @return the number of directly updated nodes
+	 */
+	public long getNodesUpdated() {
+		return nodesUpdated;
+	}
+
+	/**
+	 * answer the number of objects which were stored through the wrapped IDomainAccess
+	 * @return the number of stored objects
+	 */
+	public long getObjectsStored() {
+		return objectsStored;
+	}
+
+	/**
+	 * answer the number of tracked objects
+	 * @return the number of tracked objects
+	 */
+	public int getTrackedObjects() {
+		return this.snapshots.size();
+	}
+
+	private void track(List<?> domainObjects) {
+		for (Object obj : DomainObjectWalker.collect(domainObjects)) {
+			ModelComparator comparator = ModelComparators.comparatorFor(obj.getClass());
+			if (comparator != null)
+				this.snapshots.put(obj, takeSnapshot(obj, comparator));
+		}
+	}
+
+	private JcQuery createUpdate(long id, Object obj, ModelComparator comparator, List<Integer> changed) {
+		JcNode n = new JcNode("n");
+		IClause[] clauses = new IClause[changed.size() + 2];
+		clauses[0] = MATCH.node(n);
+		clauses[1] = WHERE.valueOf(n.id()).EQUALS(id);
+		for (int i = 0; i < changed.size(); i++) {
+			int index = changed.get(i).intValue();
+			Object value = comparator.getFieldValue(index, obj);
+			String property = comparator.getFieldName(index);
+			clauses[i + 2] = value == null ? DO.SET(n.property(property)).toNull() :
+				DO.SET(n.property(property)).to(MappingUtil.convertToProperty(value));
+		}
+		JcQuery query = new JcQuery();
+		query.setClauses(clauses);
+		return query;
+	}
+
+	/**
+	 * simple values are remembered by value, references by identity,
+	 * lists as a copy of their elements
+	 */
+	private static Object[] takeSnapshot(Object obj, ModelComparator comparator) {
+		Object[] snapshot = new Object[comparator.getFieldCount()];
+		for (int i = 0; i < snapshot.length; i++) {
+			Object value = comparator.getFieldValue(i, obj);
+			if (value instanceof List<?>)
+				snapshot[i] = new ListSnapshot((List<?>) value);
+			else
+				snapshot[i] = value;
+		}
+		return snapshot;
+	}
+
+	private static boolean isModified(Object snapshotValue, Object value, boolean simple) {
+		if (snapshotValue instanceof ListSnapshot)
+			return !((ListSnapshot) snapshotValue).isSnapshotOf(value);
+		if (simple)
+			return snapshotValue == null ? value != null : !snapshotValue.equals(value);
+		return snapshotValue != value;
+	}
+
+	/*********************************************/
+	private static class ListSnapshot {
+		private List<?> list;
+		private Object[] elements;
+
+		private ListSnapshot(List<?> list) {
+			super();
+			this.list = list;
+			this.elements = list.toArray();
+		}
+
+		private boolean isSnapshotOf(Object value) {
+			if (value != this.list)
+				return false;
+			if (this.elements.length != this.list.size())
+				return false;
+			for (int i = 0; i < this.elements.length; i++) {
+				if (this.elements[i] != this.list.get(i))
+					return false;
+			}
+			return true;
+		}
+	}
+}
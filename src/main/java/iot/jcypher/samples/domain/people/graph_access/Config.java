@@ -25,13 +25,22 @@ import iot.jcypher.domain.IDomainAccess;
 import iot.jcypher.domain.IDomainAccessFactory;
 
 import java.util.Properties;
+import java.util.function.Supplier;
 
 public class Config {
 
 	public static String domainName;
 	private static IDBAccess dbAccess;
+	private static DBAccessPool dbAccessPool;
+	private static Supplier<IDBAccess> dbAccessFactory;
+	private static boolean poolable;
 	private static String userId = null;
 	private static String password = null;
+	// pool sizes apply to remote access only, an embedded or in memory database
+	// is accessed through a single IDBAccess
+	private static int minPoolSize = 2;
+	private static int maxPoolSize = 8;
+	private static long idleTimeoutMillis = 60000;
 	
 	
 	static {
@@ -40,7 +49,7 @@ public class Config {
 		
 		// properties for remote access and for embedded access
 		// (not needed for in memory access)
-		Properties props = new Properties();
+		final Properties props = new Properties();
 		
 		// properties for remote access
 		props.setProperty(DBProperties.SERVER_ROOT_URI, "http://localhost:7474");
@@ -48,28 +57,93 @@ public class Config {
 		props.setProperty(DBProperties.DATABASE_DIR, "C:/NEO4J_DBS/01");
 		// no properties needed for in memory access
 		
-		if (userId != null && password != null)
-			dbAccess = DBAccessFactory.createDBAccess(DBType.REMOTE, props, userId, password);
-		else
-			dbAccess = DBAccessFactory.createDBAccess(DBType.REMOTE, props);
-//		dbAccess = DBAccessFactory.createDBAccess(DBType.EMBEDDED, props);
-//		dbAccess = DBAccessFactory.createDBAccess(DBType.IN_MEMORY, props);
+		final DBType dbType = DBType.REMOTE;
+//		final DBType dbType = DBType.EMBEDDED;
+//		final DBType dbType = DBType.IN_MEMORY;
+		
+		dbAccessFactory = new Supplier<IDBAccess>() {
+			@Override
+			public IDBAccess get() {
+				if (dbType == DBType.REMOTE && userId != null && password != null)
+					return DBAccessFactory.createDBAccess(dbType, props, userId, password);
+				return DBAccessFactory.createDBAccess(dbType, props);
+			}
+		};
+		poolable = dbType == DBType.REMOTE;
+		dbAccess = dbAccessFactory.get();
 	}
 	
 	/**
-	 * answer an IDBAccess to access a graph database
+	 * answer the IDBAccess to access a graph database.
+	 * <br/>Always the same instance is returned. For an embedded or in memory database it is the one
+	 * used by the IDomainAccess instances created via createDomainAccess...(),
+	 * for a remote database these use the shared instances of the DBAccessPool.
 	 * @return an IDBAccess
 	 */
 	public static IDBAccess getDBAccess() {
 		return dbAccess;
 	}
 	
+	/**
+	 * answer true if the graph database is accessed through a DBAccessPool (remote access only)
+	 * @return true if getDBAccessPool() can be used
+	 */
+	public static boolean isPooled() {
+		return poolable;
+	}
+	
+	/**
+	 * answer the pool of IDBAccess instances for parallel work,
+	 * to spread requests over several connections, to borrow an IDBAccess for exclusive use
+	 * and to monitor the pool.
+	 * <br/>The pool is created on first use, it is independent of getDBAccess().
+	 * An embedded or in memory database is not pooled, it must be accessed via getDBAccess().
+	 * @return the DBAccessPool
+	 * @throws IllegalStateException if the database is not pooled (see isPooled())
+	 */
+	public static synchronized DBAccessPool getDBAccessPool() {
+		if (!poolable)
+			throw new IllegalStateException("an embedded or in memory database is not pooled, use getDBAccess()");
+		if (dbAccessPool == null)
+			dbAccessPool = new DBAccessPool(dbAccessFactory, minPoolSize, maxPoolSize, idleTimeoutMillis);
+		return dbAccessPool;
+	}
+	
+	/**
+	 * answer the IDBAccess to be used by a new IDomainAccess,
+	 * one of the pool's shared instances for remote access, else the single IDBAccess
+	 */
+	private static IDBAccess sharedDBAccess() {
+		return poolable ? getDBAccessPool().getShared() : dbAccess;
+	}
+	
 	/**
 	 * answer a new IDomainAccess to work with a certain domain within a graph database
 	 * @return a new IDomainAccess
 	 */
 	public static IDomainAccess createDomainAccess() {
-		return DomainAccessFactory.createDomainAccess(dbAccess, domainName);
+		return DomainAccessFactory.createDomainAccess(sharedDBAccess(), domainName);
+	}
+	
+	/**
+	 * answer a new IDomainAccess to work with a certain domain within a graph database,
+	 * loading through the given second-level cache
+	 * @param cache a DomainObjectCache shared among IDomainAccess instances
+	 * @return a new IDomainAccess
+	 */
+	public static IDomainAccess createDomainAccess(DomainObjectCache cache) {
+		return cache.createDomainAccess(createDomainAccess());
+	}
+	
+	/**
+	 * answer a new IDomainAccess to work with a certain domain within a graph database,
+	 * which tracks changes of loaded objects and writes only changed objects when storing
+	 * @return a new ChangeTrackingDomainAccess
+	 */
+	public static ChangeTrackingDomainAccess createChangeTrackingDomainAccess() {
+		IDBAccess shared = sharedDBAccess();
+		return new ChangeTrackingDomainAccess(
+				DomainAccessFactory.createDomainAccess(shared, domainName), shared);
 	}
 	
 	/**
@@ -78,6 +152,6 @@ public class Config {
 	 * @return a new IDomainAccess
 	 */
 	public static IDomainAccess createThreadSafeDomainAccess() {
-		return IDomainAccessFactory.INSTANCE_SYNCHRONIZED.createDomainAccess(dbAccess, domainName);
+		return IDomainAccessFactory.INSTANCE_SYNCHRONIZED.createDomainAccess(sharedDBAccess(), domainName);
 	}
 }
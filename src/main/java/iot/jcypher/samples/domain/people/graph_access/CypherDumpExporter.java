@@ -0,0 +1,456 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.database.IDBAccess;
+import iot.jcypher.domain.DomainInformation;
+import iot.jcypher.domain.DomainInformation.DomainObjectType;
+import iot.jcypher.graph.GrLabel;
+import iot.jcypher.graph.GrNode;
+import iot.jcypher.graph.GrProperty;
+import iot.jcypher.graph.GrRelation;
+import iot.jcypher.query.JcQuery;
+import iot.jcypher.query.JcQueryResult;
+import iot.jcypher.query.api.IClause;
+import iot.jcypher.query.factories.clause.NATIVE;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.query.values.JcNode;
+import iot.jcypher.query.values.JcNumber;
+import iot.jcypher.query.values.JcRelation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Exports the graph of a domain (or of the whole database) into a Cypher dump,
+ * which can be loaded by a CypherDumpLoader.
+ * <br/>Nodes and relations are read in windows of consecutive ids (see idWindow(..)), ordered by their ids,
+ * and are written as soon as they are read. Nodes are bound to variables derived from their ids (_63, _64, ...),
+ * so memory use does not grow with the size of the graph.
+ * <br/>Every export answers a watermark (see getWatermark()). An incremental export writes
+ * only what was added (or changed) since a watermark: new nodes and relations are detected
+ * by their ids, changed nodes by a change property maintained by the application
+ * (see setChangeProperty(..)); changed nodes are written as 'match (_63) set _63 = {..}' statements.
+ * <br/>An incremental dump references nodes of previous dumps, so it must be loaded
+ * into a database the previous dumps have been loaded into with setKeepMarks(true).
+ * <br/>Note: Deleted nodes and relations, changed labels and changed relations are not captured
+ * by an incremental export. The ids of deleted nodes and relations may be reused by the database,
+ * take a full export after deleting.
+ */
+public class CypherDumpExporter {
+
+	private IDBAccess dbAccess;
+	private String domainName;
+	private String changeProperty;
+	private int pageSize;
+	private DumpWatermark watermark;
+	private long nodesExported;
+	private long relationsExported;
+
+	/**
+	 * @param dbAccess the database to export
+	 */
+	public CypherDumpExporter(IDBAccess dbAccess) {
+		super();
+		this.dbAccess = dbAccess;
+		this.pageSize = 10000;
+	}
+
+	/**
+	 * export the whole graph (of the domain, if set)
+	 * @param writer
+	 * @return a list of errors, which is empty if the export was successful
+	 */
+	public List<JcError> export(Writer writer) {
+		return export(new DumpWatermark(-1, -1, Long.MIN_VALUE), false, writer);
+	}
+
+	/**
+	 * export only the nodes and relations which were created (or changed) since a previous export
+	 * @param since the watermark of the previous export
+	 * @param writer
+	 * @return a list of errors, which is empty if the export was successful
+	 */
+	public List<JcError> exportIncrement(DumpWatermark since, Writer writer) {
+		return export(since, true, writer);
+	}
+
+	/**
+	 * answer the watermark of the last (successful) export, to be passed to the next incremental export
+	 * @return the watermark or null
+	 */
+	public DumpWatermark getWatermark() {
+		return watermark;
+	}
+
+	/**
+	 * answer the number of nodes exported (created or changed) by the last export
+	 * @return the number of nodes
+	 */
+	public long getNodesExported() {
+		return nodesExported;
+	}
+
+	/**
+	 * answer the number of relations exported by the last export
+	 * @return the number of relations
+	 */
+	public long getRelationsExported() {
+		return relationsExported;
+	}
+
+	/**
+	 * @param domainName the domain to export, if null (the default), the whole database is exported
+	 */
+	public void setDomain(String domainName) {
+		this.domainName = domainName;
+	}
+
+	/**
+	 * @param changeProperty a numeric node property, which the application increases
+	 * (e.g. sets to the current time) whenever it changes a node;
+	 * if null (the default), incremental exports contain new nodes only.
+	 */
+	public void setChangeProperty(String changeProperty) {
+		this.changeProperty = changeProperty;
+	}
+
+	/**
+	 * @param pageSize the number of consecutive ids read by one query
+	 */
+	public void setPageSize(int pageSize) {
+		if (pageSize <= 0)
+			throw new IllegalArgumentException("page size must be greater than 0");
+		this.pageSize = pageSize;
+	}
+
+	private List<JcError> export(DumpWatermark since, boolean increment, Writer writer) {
+		List<JcError> errors = new ArrayList<JcError>();
+		this.nodesExported = 0;
+		this.relationsExported = 0;
+		DumpWatermark mark = new DumpWatermark(since.lastNodeId, since.lastRelationId, since.lastChange);
+		String scope = this.domainName != null ? domainScope(this.dbAccess, this.domainName) : null;
+		try {
+			// new nodes
+			String where = scope != null ? " AND " + scope.replace("#", "n") : "";
+			JcQueryResult maxResult = execute("MATCH (n)", returnMaxId("n"));
+			if (maxResult.hasErrors())
+				return iot.jcypher.util.Util.collectErrors(maxResult);
+			long maxId = maxIdOf(maxResult);
+			long lastId = since.lastNodeId;
+			for (long from = lastId + 1; from <= maxId; from += this.pageSize) {
+				JcQueryResult result = execute(
+						idWindow(from, Math.min(maxId, from + this.pageSize - 1)) + " MATCH (n) WHERE id(n) = i" + where,
+						"RETURN n ORDER BY id(n)");
+				if (result.hasErrors())
+					return iot.jcypher.util.Util.collectErrors(result);
+				List<GrNode> nodes = result.resultOf(new JcNode("n"));
+				for (GrNode node : nodes) {
+					lastId = node.getId();
+					writer.write("create (_" + lastId);
+					for (GrLabel label : node.getLabels())
+						writer.write(":" + identifier(label.getName()));
+					List<GrProperty> properties = node.getProperties();
+					if (hasProperties(properties))
+						writer.write(' ' + properties(properties));
+					writer.write(")\n");
+					mark.lastChange = Math.max(mark.lastChange, changeOf(node));
+					this.nodesExported++;
+				}
+			}
+			mark.lastNodeId = lastId;
+
+			// changed nodes
+			if (increment && this.changeProperty != null) {
+				String changed = "n." + identifier(this.changeProperty)
+						+ (since.lastChange == Long.MIN_VALUE ? " IS NOT NULL" : " > " + since.lastChange);
+				long changedMaxId = Math.min(maxId, since.lastNodeId);
+				for (long from = 0; from <= changedMaxId; from += this.pageSize) {
+					JcQueryResult result = execute(
+							idWindow(from, Math.min(changedMaxId, from + this.pageSize - 1))
+									+ " MATCH (n) WHERE id(n) = i AND " + changed + where,
+							"RETURN n ORDER BY id(n)");
+					if (result.hasErrors())
+						return iot.jcypher.util.Util.collectErrors(result);
+					List<GrNode> nodes = result.resultOf(new JcNode("n"));
+					for (GrNode node : nodes) {
+						long id = node.getId();
+						writer.write("match (_" + id + ") set _" + id + " = "
+								+ properties(node.getProperties()) + "\n");
+						mark.lastChange = Math.max(mark.lastChange, changeOf(node));
+						this.nodesExported++;
+					}
+				}
+			}
+
+			// new relations (between nodes of the domain)
+			where = scope != null ? " AND " + scope.replace("#", "a") + " AND " + scope.replace("#", "b") : "";
+			maxResult = execute("MATCH ()-[r]->()", returnMaxId("r"));
+			if (maxResult.hasErrors())
+				return iot.jcypher.util.Util.collectErrors(maxResult);
+			maxId = maxIdOf(maxResult);
+			lastId = since.lastRelationId;
+			for (long from = lastId + 1; from <= maxId; from += this.pageSize) {
+				JcQueryResult result = execute(
+						idWindow(from, Math.min(maxId, from + this.pageSize - 1))
+								+ " MATCH (a)-[r]->(b) WHERE id(r) = i" + where,
+						"RETURN id(a) AS start, r, id(b) AS end ORDER BY id(r)");
+				if (result.hasErrors())
+					return iot.jcypher.util.Util.collectErrors(result);
+				List<BigDecimal> starts = result.resultOf(new JcNumber("start"));
+				List<GrRelation> relations = result.resultOf(new JcRelation("r"));
+				List<BigDecimal> ends = result.resultOf(new JcNumber("end"));
+				for (int i = 0; i < relations.size(); i++) {
+					GrRelation relation = relations.get(i);
+					writer.write("create _" + starts.get(i).longValue() + "-[:" + identifier(relation.getType()));
+					List<GrProperty> properties = relation.getProperties();
+					if (hasProperties(properties))
+						writer.write(' ' + properties(properties));
+					writer.write("]->_" + ends.get(i).longValue() + "\n");
+					lastId = relation.getId();
+					this.relationsExported++;
+				}
+			}
+			mark.lastRelationId = lastId;
+			writer.flush();
+		} catch (IOException e) {
+			errors.add(new JcError("CypherDumpExporter", e.getMessage(), e.getClass().getName()));
+			return errors;
+		}
+		this.watermark = mark;
+		return errors;
+	}
+
+	/**
+	 * answer a Cypher predicate, which is true for the nodes of a domain:
+	 * the domain objects (including the collections) and the domain's info and model nodes.
+	 * The node variable is represented by '#'.
+	 */
+	static String domainScope(IDBAccess dbAccess, String domainName) {
+		Set<String> labels = new TreeSet<String>();
+		for (DomainObjectType type : DomainInformation.forDomain(dbAccess, domainName).getDomainObjectTypes())
+			labels.add(type.getNodeLabel());
+		JcQuery query = new JcQuery();
+		query.setClauses(new IClause[] {
+				NATIVE.cypher(
+						"MATCH (n:DomainInfo) WHERE n.name = " + literal(domainName),
+						"RETURN n")
+		});
+		JcQueryResult result = dbAccess.execute(query);
+		if (!result.hasErrors()) {
+			// the label to class map also contains labels of internal types (e.g. Collection)
+			for (GrNode info : result.resultOf(new JcNode("n"))) {
+				GrProperty map = info.getProperty("label2ClassMap");
+				if (map != null && map.getValue() instanceof List<?>) {
+					for (Object entry : (List<?>) map.getValue()) {
+						String str = String.valueOf(entry);
+						int idx = str.indexOf('=');
+						if (idx > 0)
+							labels.add(str.substring(0, idx));
+					}
+				}
+			}
+		}
+		StringBuilder sb = new StringBuilder("(");
+		for (String label : labels)
+			sb.append("#:").append(identifier(label)).append(" OR ");
+		sb.append("#:").append(identifier(domainName.replace('-', '_') + "_mdl"));
+		sb.append(" OR (#:DomainInfo AND #.name = ").append(literal(domainName)).append("))");
+		return sb.toString();
+	}
+
+	/**
+	 * answer the start of a query which binds 'i' to the ids from .. to (inclusive).
+	 * Matching a node or relation by 'id(x) = i' is a seek by id, so reading windows of ids
+	 * one after the other reads every node or relation once. Paging with 'WHERE id(x) > last
+	 * ORDER BY id(x) LIMIT ..' would instead scan the whole graph for every page.
+	 */
+	static String idWindow(long from, long to) {
+		return "UNWIND range(" + from + ", " + to + ") AS i";
+	}
+
+	/**
+	 * answer a return clause for the highest id bound to the given variable (-1 if there is none)
+	 */
+	static String returnMaxId(String variable) {
+		return "RETURN coalesce(max(id(" + variable + ")), -1) AS maxId";
+	}
+
+	/**
+	 * answer the highest id from the result of a query ending with returnMaxId(..)
+	 */
+	static long maxIdOf(JcQueryResult result) {
+		List<BigDecimal> maxIds = result.resultOf(new JcNumber("maxId"));
+		return maxIds.isEmpty() ? -1 : maxIds.get(0).longValue();
+	}
+
+	private JcQueryResult execute(String... cypher) {
+		JcQuery query = new JcQuery();
+		query.setClauses(new IClause[] {
+				NATIVE.cypher(cypher)
+		});
+		return this.dbAccess.execute(query);
+	}
+
+	private long changeOf(GrNode node) {
+		if (this.changeProperty == null)
+			return Long.MIN_VALUE;
+		GrProperty property = node.getProperty(this.changeProperty);
+		if (property != null && property.getValue() instanceof Number)
+			return ((Number) property.getValue()).longValue();
+		return Long.MIN_VALUE;
+	}
+
+	private static boolean hasProperties(List<GrProperty> properties) {
+		for (GrProperty property : properties) {
+			if (!CypherDumpLoader.DUMP_ID_PROPERTY.equals(property.getName()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * answer a property map literal, the properties ordered by name and without the marks of a CypherDumpLoader
+	 */
+	private static String properties(List<GrProperty> properties) {
+		List<GrProperty> sorted = new ArrayList<GrProperty>(properties);
+		Collections.sort(sorted, new Comparator<GrProperty>() {
+			@Override
+			public int compare(GrProperty o1, GrProperty o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+		StringBuilder sb = new StringBuilder("{");
+		for (GrProperty property : sorted) {
+			if (CypherDumpLoader.DUMP_ID_PROPERTY.equals(property.getName()) || property.getValue() == null)
+				continue;
+			if (sb.length() > 1)
+				sb.append(", ");
+			sb.append(identifier(property.getName())).append(':').append(literal(property.getValue()));
+		}
+		return sb.append('}').toString();
+	}
+
+	private static String identifier(String name) {
+		return '`' + name.replace("`", "``") + '`';
+	}
+
+	private static String literal(Object value) {
+		// keep doubles with integral values (e.g. 2.0 or 1.0E10) doubles, see GraphSnapshotFormat
+		if (value instanceof Number)
+			return GraphSnapshotFormat.Output.isIntegral((Number) value) ?
+					String.valueOf(((Number) value).longValue()) : String.valueOf(((Number) value).doubleValue());
+		if (value instanceof Boolean)
+			return value.toString();
+		if (value instanceof List<?> || value instanceof Object[]) {
+			List<?> list = value instanceof List<?> ? (List<?>) value : Arrays.asList((Object[]) value);
+			StringBuilder sb = new StringBuilder("[");
+			for (Object elem : list) {
+				if (sb.length() > 1)
+					sb.append(", ");
+				sb.append(literal(elem));
+			}
+			return sb.append(']').toString();
+		}
+		// escaped line breaks keep every statement on a line of its own
+		StringBuilder sb = new StringBuilder("\"");
+		String str = String.valueOf(value);
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/*********************************************/
+	/**
+	 * the state of a database reached by an export:
+	 * the highest node and relation ids and the highest value of the change property exported
+	 */
+	public static class DumpWatermark {
+		private long lastNodeId;
+		private long lastRelationId;
+		private long lastChange;
+
+		public DumpWatermark(long lastNodeId, long lastRelationId, long lastChange) {
+			super();
+			this.lastNodeId = lastNodeId;
+			this.lastRelationId = lastRelationId;
+			this.lastChange = lastChange;
+		}
+
+		/**
+		 * answer a watermark from its String representation
+		 * @param str as answered by toString()
+		 * @return a watermark
+		 */
+		public static DumpWatermark parse(String str) {
+			String[] parts = str.trim().split(":");
+			if (parts.length != 3)
+				throw new IllegalArgumentException("invalid watermark: " + str);
+			try {
+				return new DumpWatermark(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+						Long.parseLong(parts[2]));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("invalid watermark: " + str);
+			}
+		}
+
+		public long getLastNodeId() {
+			return lastNodeId;
+		}
+
+		public long getLastRelationId() {
+			return lastRelationId;
+		}
+
+		public long getLastChange() {
+			return lastChange;
+		}
+
+		@Override
+		public String toString() {
+			return lastNodeId + ":" + lastRelationId + ":" + lastChange;
+		}
+	}
+}
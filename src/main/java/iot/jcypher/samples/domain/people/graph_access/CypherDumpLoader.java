@@ -0,0 +1,617 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.database.IDBAccess;
+import iot.jcypher.query.JcQuery;
+import iot.jcypher.query.JcQueryResult;
+import iot.jcypher.query.api.IClause;
+import iot.jcypher.query.factories.clause.NATIVE;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.query.values.JcCollection;
+import iot.jcypher.query.values.JcNumber;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads a Cypher dump (e.g. /load/generic_people_domain.txt) in batches,
+ * instead of sending the whole dump as one query.
+ * <br/>A dump consists of 'create' statements, which create nodes bound to variables (_63, _64, ...)
+ * and relations between these variables. The dump is read line by line, and every batch
+ * of statements is executed (and committed) as a query of its own. Variables bound in previous batches
+ * are matched by the ids of the nodes created for them, so only the variable to node id mapping
+ * (a hash map of two longs per node, independent of the values of the variables) is kept in memory,
+ * not the dump.
+ * <br/>Created nodes are marked with the variable they were created for (property '_dump_id'),
+ * so that an interrupted load can be resumed from the number of statements already loaded
+ * (see setStartOffset(..)). The marks are removed when the dump has been loaded completely,
+ * unless they are kept to apply incremental dumps later on (see setKeepMarks(..)).
+ * <br/>Incremental dumps (see CypherDumpExporter) in addition contain 'match (_63) set _63 = {..}'
+ * statements, which replace the properties of nodes created by a previous load.
+ */
+public class CypherDumpLoader {
+
+	public static final String DUMP_ID_PROPERTY = "_dump_id";
+
+	private static final Pattern NODE_STATEMENT =
+			Pattern.compile("create\\s+\\(_(\\d+)((?:\\s*:\\s*(?:`[^`]*`|\\w+))*)\\s*(\\{.*\\})?\\s*\\)\\s*;?\\s*",
+					Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern RELATION_STATEMENT =
+			Pattern.compile("create\\s+\\(?_(\\d+)\\)?\\s*-\\s*\\[(.*)\\]\\s*->\\s*\\(?_(\\d+)\\)?\\s*;?\\s*",
+					Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern UPDATE_STATEMENT =
+			Pattern.compile("match\\s+\\(_(\\d+)\\)\\s+set\\s+_(\\d+)\\s*=\\s*(\\{.*\\})\\s*;?\\s*",
+					Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final int PAGE_SIZE = 10000;
+
+	private IDBAccess dbAccess;
+	private int batchSize;
+	private long startOffset;
+	private boolean keepMarks;
+	private IProgressListener progressListener;
+	private long statementsLoaded;
+	private NodeIdMap nodeIds;
+
+	/**
+	 * @param dbAccess the database to load the dump into
+	 */
+	public CypherDumpLoader(IDBAccess dbAccess) {
+		super();
+		this.dbAccess = dbAccess;
+		this.batchSize = 1000;
+		this.nodeIds = new NodeIdMap();
+	}
+
+	/**
+	 * load a dump from the classpath
+	 * @param resource the name of the resource, e.g. "/load/generic_people_domain.txt"
+	 * @return a list of errors, which is empty if loading was successful
+	 */
+	public List<JcError> load(String resource) {
+		InputStream in = CypherDumpLoader.class.getResourceAsStream(resource);
+		if (in == null)
+			return Arrays.asList(new JcError("CypherDumpLoader", "resource not found: " + resource, null));
+		try {
+			return load(new InputStreamReader(in, StandardCharsets.UTF_8));
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * load a dump.
+	 * <br/>If loading fails, getStatementsLoaded() answers the offset to resume from.
+	 * @param reader the dump, it is read line by line
+	 * @return a list of errors, which is empty if loading was successful
+	 */
+	public List<JcError> load(Reader reader) {
+		List<JcError> errors = new ArrayList<JcError>();
+		this.statementsLoaded = 0;
+		errors.addAll(prepareNodeIds());
+		if (!errors.isEmpty())
+			return errors;
+		try {
+			StatementReader statements = new StatementReader(reader);
+			Batch batch = new Batch();
+			long statementIndex = 0;
+			String statement;
+			while ((statement = statements.next()) != null) {
+				if (statementIndex >= this.startOffset) {
+					errors.addAll(batch.add(statement, statementIndex, this));
+					if (errors.isEmpty() && batch.size() >= this.batchSize)
+						errors.addAll(execute(batch));
+					if (!errors.isEmpty())
+						return errors;
+				} else
+					this.statementsLoaded++;
+				statementIndex++;
+			}
+			if (batch.size() > 0)
+				errors.addAll(execute(batch));
+		} catch (IOException e) {
+			errors.add(new JcError("CypherDumpLoader", e.getMessage(), e.getClass().getName()));
+		}
+		if (errors.isEmpty())
+			errors.addAll(finish());
+		return errors;
+	}
+
+	/**
+	 * answer the number of statements loaded (including skipped ones, see setStartOffset(..)),
+	 * i.e. the offset to resume from, if loading has failed
+	 * @return the number of statements loaded
+	 */
+	public long getStatementsLoaded() {
+		return statementsLoaded;
+	}
+
+	/**
+	 * @param batchSize the number of statements executed in one query (and transaction)
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batch size must be greater than 0");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param startOffset the number of statements to skip, because they have been loaded before
+	 * (see getStatementsLoaded())
+	 */
+	public void setStartOffset(long startOffset) {
+		if (startOffset < 0)
+			throw new IllegalArgumentException("start offset must not be negative");
+		this.startOffset = startOffset;
+	}
+
+	/**
+	 * @param keepMarks if true, the created nodes keep their marks (see DUMP_ID_PROPERTY),
+	 * so that incremental dumps can be applied by later loads; if false (the default),
+	 * the marks are removed after loading, and later loads start with no bound variables.
+	 */
+	public void setKeepMarks(boolean keepMarks) {
+		this.keepMarks = keepMarks;
+	}
+
+	/**
+	 * @param progressListener is notified after every committed batch
+	 */
+	public void setProgressListener(IProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	private List<JcError> execute(Batch batch) {
+		JcQueryResult result = this.dbAccess.execute(batch.toQuery(this));
+		List<JcError> errors = batchExecuted(batch, result);
+		if (errors.isEmpty()) {
+			this.statementsLoaded = batch.lastStatement + 1;
+			batch.clear();
+			if (this.progressListener != null)
+				this.progressListener.batchCommitted(this.statementsLoaded);
+		}
+		return errors;
+	}
+
+	/**
+	 * check the result of an executed batch and remember the ids of the created nodes
+	 * @param batch
+	 * @param result
+	 * @return a list of errors, which is empty if the batch was executed successfully
+	 */
+	List<JcError> batchExecuted(Batch batch, JcQueryResult result) {
+		List<JcError> errors = new ArrayList<JcError>();
+		if (result.hasErrors())
+			return iot.jcypher.util.Util.collectErrors(result);
+		// the batch answers exactly one row, none if a referenced node was not found
+		// (the statements are then not executed at all)
+		List<List<?>> rows = result.resultOf(new JcCollection("ids"));
+		if (rows.size() != 1) {
+			errors.add(new JcError("CypherDumpLoader", "nodes referenced by the batch ending with statement ["
+					+ batch.lastStatement + "] were not found, the batch was not loaded", null));
+			return errors;
+		}
+		List<?> ids = rows.get(0);
+		if (ids == null || ids.size() != batch.createdVariables.size()) {
+			errors.add(new JcError("CypherDumpLoader", "missing ids of created nodes", null));
+			return errors;
+		}
+		int i = 0;
+		for (Long variable : batch.createdVariables)
+			this.nodeIds.put(variable.longValue(), ((Number) ids.get(i++)).longValue());
+		return errors;
+	}
+
+	/**
+	 * start with an empty variable to node id mapping,
+	 * or with the mapping of the nodes created so far, if resuming or applying an incremental dump
+	 * @return a list of errors, which is empty if successful
+	 */
+	List<JcError> prepareNodeIds() {
+		this.nodeIds = new NodeIdMap();
+		if (this.startOffset == 0 && !this.keepMarks)
+			return new ArrayList<JcError>();
+		return restoreNodeIds();
+	}
+
+	/**
+	 * remove the marks of the created nodes, unless they are kept
+	 * @return a list of errors, which is empty if successful
+	 */
+	List<JcError> finish() {
+		if (this.keepMarks)
+			return new ArrayList<JcError>();
+		return removeMarks();
+	}
+
+	/**
+	 * rebuild the variable to node id mapping from the marks of the nodes created so far
+	 */
+	private List<JcError> restoreNodeIds() {
+		long lastId = -1;
+		while (true) {
+			JcQuery query = new JcQuery();
+			query.setClauses(new IClause[] {
+					NATIVE.cypher(
+							"MATCH (n) WHERE n.`" + DUMP_ID_PROPERTY + "` IS NOT NULL AND id(n) > " + lastId,
+							"RETURN n.`" + DUMP_ID_PROPERTY + "` AS var, id(n) AS id",
+							"ORDER BY id LIMIT " + PAGE_SIZE)
+			});
+			JcQueryResult result = this.dbAccess.execute(query);
+			if (result.hasErrors())
+				return iot.jcypher.util.Util.collectErrors(result);
+			List<BigDecimal> vars = result.resultOf(new JcNumber("var"));
+			List<BigDecimal> ids = result.resultOf(new JcNumber("id"));
+			for (int i = 0; i < vars.size(); i++) {
+				lastId = ids.get(i).longValue();
+				this.nodeIds.put(vars.get(i).longValue(), lastId);
+			}
+			if (vars.size() < PAGE_SIZE)
+				return new ArrayList<JcError>();
+		}
+	}
+
+	/**
+	 * remove the marks from the created nodes, page by page
+	 */
+	private List<JcError> removeMarks() {
+		while (true) {
+			JcQuery query = new JcQuery();
+			query.setClauses(new IClause[] {
+					NATIVE.cypher(
+							"MATCH (n) WHERE n.`" + DUMP_ID_PROPERTY + "` IS NOT NULL",
+							"WITH n LIMIT " + PAGE_SIZE,
+							"REMOVE n.`" + DUMP_ID_PROPERTY + "`",
+							"RETURN count(n) AS removed")
+			});
+			JcQueryResult result = this.dbAccess.execute(query);
+			if (result.hasErrors())
+				return iot.jcypher.util.Util.collectErrors(result);
+			List<BigDecimal> removed = result.resultOf(new JcNumber("removed"));
+			if (removed.isEmpty() || removed.get(0).intValue() < PAGE_SIZE)
+				return new ArrayList<JcError>();
+		}
+	}
+
+	/**
+	 * answer true if the statement creates a relation
+	 */
+	static boolean isRelationStatement(String statement) {
+		return RELATION_STATEMENT.matcher(statement).matches();
+	}
+
+	/**
+	 * answer the variable of the start node of a relation statement,
+	 * -1 if it is out of range
+	 */
+	static long startVariableOf(String statement) {
+		Matcher m = RELATION_STATEMENT.matcher(statement);
+		if (!m.matches())
+			throw new IllegalArgumentException("not a relation statement: " + statement);
+		return parseVariable(m.group(1));
+	}
+
+	/**
+	 * answer the value of a variable (the digits following the '_'), -1 if it is out of range
+	 */
+	private static long parseVariable(String digits) {
+		try {
+			return Long.parseLong(digits);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	IDBAccess getDBAccess() {
+		return dbAccess;
+	}
+
+	int getBatchSize() {
+		return batchSize;
+	}
+
+	long getStartOffset() {
+		return startOffset;
+	}
+
+	IProgressListener getProgressListener() {
+		return progressListener;
+	}
+
+	private static boolean isStatementStart(String line) {
+		return line.regionMatches(true, 0, "create", 0, 6) || line.regionMatches(true, 0, "match", 0, 5);
+	}
+
+	/**
+	 * answer true for lines which separate transactions in a dump
+	 */
+	private static boolean isSeparator(String line) {
+		return line.equals(";") || line.equalsIgnoreCase("begin") || line.equalsIgnoreCase("commit");
+	}
+
+	/*********************************************/
+	/**
+	 * is notified about the progress of loading a dump
+	 */
+	public interface IProgressListener {
+		/**
+		 * a batch has been committed
+		 * @param statementsLoaded the number of statements loaded so far
+		 * (the offset to resume from)
+		 */
+		void batchCommitted(long statementsLoaded);
+	}
+
+	/*********************************************/
+	/**
+	 * reads the statements of a dump, one at a time
+	 */
+	static class StatementReader {
+		private BufferedReader reader;
+		private String line;
+		private boolean started;
+
+		StatementReader(Reader reader) {
+			super();
+			this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+		}
+
+		/**
+		 * answer the next statement, null at the end of the dump
+		 */
+		String next() throws IOException {
+			if (!this.started) {
+				this.line = this.reader.readLine();
+				this.started = true;
+			}
+			StringBuilder statement = null;
+			while (this.line != null) {
+				String trimmed = this.line.trim();
+				if (isStatementStart(trimmed)) {
+					// the line starts the next statement, it is kept for the next call
+					if (statement != null)
+						return statement.toString();
+					statement = new StringBuilder(trimmed);
+				} else if (statement != null && !trimmed.isEmpty() && !isSeparator(trimmed))
+					statement.append('\n').append(this.line);
+				this.line = this.reader.readLine();
+			}
+			return statement != null ? statement.toString() : null;
+		}
+	}
+
+	/*********************************************/
+	static class Batch {
+		private List<String> statements;
+		private Set<Long> createdVariables;
+		private Set<Long> referencedVariables;
+		private long lastStatement;
+
+		Batch() {
+			super();
+			this.statements = new ArrayList<String>();
+			this.createdVariables = new LinkedHashSet<Long>();
+			this.referencedVariables = new LinkedHashSet<Long>();
+		}
+
+		/**
+		 * add a statement, variables are rewritten to be valid across Cypher versions
+		 */
+		List<JcError> add(String statement, long index, CypherDumpLoader loader) {
+			List<JcError> errors = new ArrayList<JcError>();
+			Matcher m = NODE_STATEMENT.matcher(statement);
+			Long[] referenced;
+			if (m.matches()) {
+				Long variable = Long.valueOf(parseVariable(m.group(1)));
+				this.statements.add("create (_" + variable + m.group(2) + ' ' + markedProperties(m.group(3), variable) + ')');
+				this.createdVariables.add(variable);
+				referenced = new Long[] {variable};
+			} else if ((m = RELATION_STATEMENT.matcher(statement)).matches()) {
+				Long from = Long.valueOf(parseVariable(m.group(1)));
+				Long to = Long.valueOf(parseVariable(m.group(3)));
+				this.statements.add("create (_" + from + ")-[" + m.group(2) + "]->(_" + to + ')');
+				referenced = new Long[] {from, to};
+			} else if ((m = UPDATE_STATEMENT.matcher(statement)).matches() && m.group(1).equals(m.group(2))) {
+				Long variable = Long.valueOf(parseVariable(m.group(1)));
+				this.statements.add("SET _" + variable + " = " + markedProperties(m.group(3), variable));
+				referenced = new Long[] {variable};
+			} else {
+				errors.add(new JcError("CypherDumpLoader",
+						"unsupported statement [" + index + "]: " + statement, null));
+				return errors;
+			}
+			for (Long variable : referenced) {
+				if (variable.longValue() < 0) {
+					errors.add(new JcError("CypherDumpLoader",
+							"variable out of range [" + index + "]: " + statement, null));
+					return errors;
+				}
+				if (this.createdVariables.contains(variable))
+					continue;
+				if (loader.nodeIds.get(variable.longValue()) < 0) {
+					errors.add(new JcError("CypherDumpLoader",
+							"variable _" + variable + " is not bound [" + index + "]: " + statement, null));
+					return errors;
+				}
+				this.referencedVariables.add(variable);
+			}
+			this.lastStatement = index;
+			return errors;
+		}
+
+		/**
+		 * answer the properties of a node, including its mark
+		 */
+		private static String markedProperties(String properties, Long variable) {
+			String mark = '`' + DUMP_ID_PROPERTY + "`:" + variable;
+			if (properties == null || properties.substring(1).trim().equals("}"))
+				return "{" + mark + "}";
+			return "{" + mark + ", " + properties.substring(1);
+		}
+
+		/**
+		 * answer a query, which matches the nodes created by previous batches,
+		 * executes the statements and answers the ids of the created nodes.
+		 * <br/>The referenced nodes are looked up by a single seek over the list of their ids
+		 * (sorted, so that the collected nodes are in the order of their ids), instead of a pattern per node,
+		 * whose cartesian product would have to be planned for every batch.
+		 * If one of them is not found, no row remains, the statements are not executed
+		 * and the query answers no row (see batchExecuted(..)).
+		 * <br/>Note: Native Cypher queries cannot be passed parameters by JCypher,
+		 * the ids are therefore part of the query.
+		 */
+		JcQuery toQuery(CypherDumpLoader loader) {
+			List<String> lines = new ArrayList<String>();
+			if (!this.referencedVariables.isEmpty()) {
+				// node id -> index within the sorted list of referenced nodes
+				TreeMap<Long, Integer> indices = new TreeMap<Long, Integer>();
+				for (Long variable : this.referencedVariables)
+					indices.put(Long.valueOf(loader.nodeIds.get(variable.longValue())), null);
+				StringBuilder unwind = new StringBuilder("UNWIND [");
+				int index = 0;
+				for (Map.Entry<Long, Integer> entry : indices.entrySet()) {
+					if (index > 0)
+						unwind.append(", ");
+					unwind.append(entry.getKey());
+					entry.setValue(Integer.valueOf(index++));
+				}
+				lines.add(unwind.append("] AS nodeId").toString());
+				lines.add("MATCH (n) WHERE id(n) = nodeId");
+				lines.add("WITH n ORDER BY id(n)");
+				lines.add("WITH collect(n) AS refs");
+				lines.add("WHERE size(refs) = " + indices.size());
+				StringBuilder with = new StringBuilder("WITH ");
+				for (Long variable : this.referencedVariables) {
+					if (with.length() > 5)
+						with.append(", ");
+					with.append("refs[").append(indices.get(Long.valueOf(loader.nodeIds.get(variable.longValue()))))
+						.append("] AS _").append(variable);
+				}
+				lines.add(with.toString());
+			}
+			lines.addAll(this.statements);
+			StringBuilder ret = new StringBuilder("RETURN [");
+			for (Long variable : this.createdVariables) {
+				if (ret.length() > 8)
+					ret.append(", ");
+				ret.append("id(_").append(variable).append(')');
+			}
+			lines.add(ret.append("] AS ids").toString());
+			JcQuery query = new JcQuery();
+			query.setClauses(new IClause[] {
+					NATIVE.cypher(lines.toArray(new String[lines.size()]))
+			});
+			return query;
+		}
+
+		int size() {
+			return this.statements.size();
+		}
+
+		void clear() {
+			this.statements.clear();
+			this.createdVariables.clear();
+			this.referencedVariables.clear();
+		}
+	}
+
+	/*********************************************/
+	/**
+	 * maps variables to node ids (open addressing, linear probing),
+	 * memory is proportional to the number of variables, not to their values
+	 */
+	static class NodeIdMap {
+		private static final long FREE = -1;
+
+		private long[] keys;
+		private long[] values;
+		private int size;
+
+		NodeIdMap() {
+			super();
+			init(1024);
+		}
+
+		/**
+		 * @param variable a variable >= 0
+		 * @param nodeId
+		 */
+		void put(long variable, long nodeId) {
+			int idx = indexOf(variable);
+			if (this.keys[idx] == FREE) {
+				this.keys[idx] = variable;
+				this.size++;
+			}
+			this.values[idx] = nodeId;
+			// load factor 0.5
+			if (this.size * 2 > this.keys.length)
+				rehash();
+		}
+
+		/**
+		 * answer the node id bound to the variable, -1 if the variable is not bound
+		 */
+		long get(long variable) {
+			int idx = indexOf(variable);
+			return this.keys[idx] == FREE ? -1 : this.values[idx];
+		}
+
+		private int indexOf(long variable) {
+			int mask = this.keys.length - 1;
+			// spread consecutive variables (Stafford variant 13 mix)
+			long h = (variable ^ (variable >>> 30)) * 0xbf58476d1ce4e5b9L;
+			h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+			int idx = (int) (h ^ (h >>> 31)) & mask;
+			while (this.keys[idx] != FREE && this.keys[idx] != variable)
+				idx = (idx + 1) & mask;
+			return idx;
+		}
+
+		private void init(int capacity) {
+			this.keys = new long[capacity];
+			Arrays.fill(this.keys, FREE);
+			this.values = new long[capacity];
+			this.size = 0;
+		}
+
+		private void rehash() {
+			long[] oldKeys = this.keys;
+			long[] oldValues = this.values;
+			init(oldKeys.length * 2);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != FREE)
+					put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+}
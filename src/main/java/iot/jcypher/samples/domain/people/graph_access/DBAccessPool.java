@@ -0,0 +1,439 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.database.IDBAccess;
+import iot.jcypher.query.JcQuery;
+import iot.jcypher.query.JcQueryResult;
+import iot.jcypher.query.api.IClause;
+import iot.jcypher.query.factories.clause.NATIVE;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A pool of IDBAccess instances (i.e. of connections to a graph database).
+ * <br/>The pool is warmed up with minSize instances (the core instances), which are never evicted.
+ * Core instances are handed out round-robin by getShared() for long living users like IDomainAccess instances,
+ * thus spreading concurrent request threads over several connections.
+ * <br/>Exclusive use of an instance is obtained by borrow() / release(..). Core instances are never borrowed,
+ * instead the pool creates additional instances on demand up to maxSize instances (including the core).
+ * Borrowable instances which are idle for longer than the idle timeout are evicted,
+ * the remaining idle ones are periodically health-checked, failing instances are discarded.
+ * Core instances are health-checked as well, a failing core instance is closed and replaced by a new one
+ * (users which still hold the failed instance, e.g. an IDomainAccess, need to be recreated).
+ * <br/>Note: Only remote database access should be pooled with more than one instance,
+ * an embedded or in memory database must be accessed via a single instance.
+ * A pool with maxSize == minSize provides shared instances only, borrow(..) will then time out.
+ */
+public class DBAccessPool {
+
+	private static final String[] HEALTH_CHECK = new String[] {"RETURN 1 AS alive"};
+
+	private Supplier<IDBAccess> factory;
+	private int minSize;
+	private int maxSize;
+	private long idleTimeoutMillis;
+	private boolean testOnBorrow;
+
+	private AtomicReferenceArray<IDBAccess> core;
+	private Deque<PooledEntry> idle;
+	private Map<IDBAccess, PooledEntry> all;
+	private AtomicInteger nextShared;
+	private ScheduledExecutorService evictor;
+	private int pendingCreates;
+	private boolean closed;
+
+	private AtomicLong borrowCount;
+	private AtomicLong returnCount;
+	private AtomicLong createCount;
+	private AtomicLong evictCount;
+	private AtomicLong healthCheckFailures;
+	private AtomicLong borrowTimeouts;
+	private AtomicLong borrowWaitNanos;
+
+	/**
+	 * @param factory creates new IDBAccess instances
+	 * @param minSize the number of core instances created up front
+	 * @param maxSize the maximum number of instances, the core instances included
+	 * @param idleTimeoutMillis the time after which an idle borrowable instance is evicted,
+	 * the evictor (including health checks) runs in intervals of half the idle timeout.
+	 */
+	public DBAccessPool(Supplier<IDBAccess> factory, int minSize, int maxSize, long idleTimeoutMillis) {
+		super();
+		if (minSize <= 0 || maxSize < minSize)
+			throw new IllegalArgumentException("0 < minSize <= maxSize required");
+		this.factory = factory;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.core = new AtomicReferenceArray<IDBAccess>(minSize);
+		this.idle = new ArrayDeque<PooledEntry>();
+		this.all = new IdentityHashMap<IDBAccess, PooledEntry>();
+		this.nextShared = new AtomicInteger();
+		this.borrowCount = new AtomicLong();
+		this.returnCount = new AtomicLong();
+		this.createCount = new AtomicLong();
+		this.evictCount = new AtomicLong();
+		this.healthCheckFailures = new AtomicLong();
+		this.borrowTimeouts = new AtomicLong();
+		this.borrowWaitNanos = new AtomicLong();
+
+		for (int i = 0; i < minSize; i++) {
+			PooledEntry entry = createEntry();
+			// warm up
+			isHealthy(entry.dbAccess);
+			// core instances are shared, they are not available for exclusive use
+			this.core.set(i, entry.dbAccess);
+		}
+		if (idleTimeoutMillis > 0) {
+			this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "db-access-pool-evictor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			long interval = Math.max(1, idleTimeoutMillis / 2);
+			this.evictor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evict();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * answer one of the core instances (round-robin) for shared, non exclusive use.
+	 * @return an IDBAccess
+	 */
+	public IDBAccess getShared() {
+		int idx = Math.abs(this.nextShared.getAndIncrement() % this.core.length());
+		return this.core.get(idx);
+	}
+
+	/**
+	 * borrow an instance for exclusive use, wait if the pool is exhausted.
+	 * It must be returned via release(..).
+	 * <br/>Note: Core instances (see getShared()) are never borrowed,
+	 * so a borrowed instance is not used by anybody else.
+	 * @param timeoutMillis the maximum time to wait
+	 * @return an IDBAccess
+	 * @throws NoSuchElementException if no instance became available within the timeout
+	 */
+	public IDBAccess borrow(long timeoutMillis) {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		PooledEntry entry = null;
+		boolean create = false;
+		synchronized (this) {
+			while (entry == null && !create) {
+				if (this.closed)
+					throw new IllegalStateException("pool is closed");
+				entry = this.idle.pollFirst();
+				if (entry == null) {
+					if (this.all.size() + this.pendingCreates < this.maxSize) {
+						this.pendingCreates++;
+						create = true;
+					} else {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							this.borrowTimeouts.incrementAndGet();
+							throw new NoSuchElementException("no database access available within "
+									+ timeoutMillis + " ms");
+						}
+						try {
+							TimeUnit.NANOSECONDS.timedWait(this, remaining);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new NoSuchElementException("interrupted while waiting for database access");
+						}
+					}
+				}
+			}
+		}
+		if (create) {
+			try {
+				entry = createEntry();
+			} finally {
+				synchronized (this) {
+					this.pendingCreates--;
+				}
+			}
+		} else if (this.testOnBorrow && !isHealthy(entry.dbAccess)) {
+			discard(entry);
+			return borrow(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+		}
+		synchronized (this) {
+			entry.borrowed = true;
+		}
+		this.borrowCount.incrementAndGet();
+		this.borrowWaitNanos.addAndGet(System.nanoTime() - start);
+		return entry.dbAccess;
+	}
+
+	/**
+	 * return a borrowed instance to the pool
+	 * @param dbAccess
+	 */
+	public synchronized void release(IDBAccess dbAccess) {
+		PooledEntry entry = this.all.get(dbAccess);
+		if (entry == null || !entry.borrowed)
+			throw new IllegalArgumentException("not borrowed from this pool");
+		entry.borrowed = false;
+		entry.lastUsed = System.currentTimeMillis();
+		this.returnCount.incrementAndGet();
+		if (this.closed) {
+			this.all.remove(dbAccess);
+			dbAccess.close();
+		} else {
+			this.idle.addFirst(entry);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * answer true if the given instance is currently borrowed from this pool
+	 * @param dbAccess
+	 * @return true if borrowed
+	 */
+	public synchronized boolean isBorrowed(IDBAccess dbAccess) {
+		PooledEntry entry = this.all.get(dbAccess);
+		return entry != null && entry.borrowed;
+	}
+
+	/**
+	 * close all instances, borrowed instances are closed when they are returned.
+	 */
+	public void close() {
+		List<PooledEntry> toClose = new ArrayList<PooledEntry>();
+		synchronized (this) {
+			this.closed = true;
+			for (int i = 0; i < this.core.length(); i++)
+				toClose.add(this.all.get(this.core.get(i)));
+			toClose.addAll(this.idle);
+			for (PooledEntry entry : toClose)
+				this.all.remove(entry.dbAccess);
+			this.idle.clear();
+			notifyAll();
+		}
+		if (this.evictor != null)
+			this.evictor.shutdownNow();
+		for (PooledEntry entry : toClose)
+			entry.dbAccess.close();
+	}
+
+	/**
+	 * @param testOnBorrow if true, an instance is health-checked before it is borrowed
+	 */
+	public void setTestOnBorrow(boolean testOnBorrow) {
+		this.testOnBorrow = testOnBorrow;
+	}
+
+	/**
+	 * answer the current number of instances (idle or borrowed)
+	 * @return the pool size
+	 */
+	public synchronized int getSize() {
+		return this.all.size();
+	}
+
+	/**
+	 * answer the current number of idle borrowable (i.e. non core) instances
+	 * @return the number of idle instances
+	 */
+	public synchronized int getIdleCount() {
+		return this.idle.size();
+	}
+
+	public long getBorrowCount() {
+		return this.borrowCount.get();
+	}
+
+	public long getReturnCount() {
+		return this.returnCount.get();
+	}
+
+	public long getCreateCount() {
+		return this.createCount.get();
+	}
+
+	public long getEvictCount() {
+		return this.evictCount.get();
+	}
+
+	public long getHealthCheckFailures() {
+		return this.healthCheckFailures.get();
+	}
+
+	public long getBorrowTimeouts() {
+		return this.borrowTimeouts.get();
+	}
+
+	/**
+	 * answer the average time a borrow(..) call took in milliseconds
+	 * @return the average borrow time
+	 */
+	public double getAverageBorrowMillis() {
+		long num = this.borrowCount.get();
+		return num == 0 ? 0 : this.borrowWaitNanos.get() / (num * 1000000.0);
+	}
+
+	@Override
+	public String toString() {
+		return "DBAccessPool [size=" + getSize() + ", idle=" + getIdleCount()
+				+ ", min=" + this.minSize + ", max=" + this.maxSize
+				+ ", borrowed=" + getBorrowCount() + ", returned=" + getReturnCount()
+				+ ", created=" + getCreateCount() + ", evicted=" + getEvictCount()
+				+ ", healthCheckFailures=" + getHealthCheckFailures()
+				+ ", borrowTimeouts=" + getBorrowTimeouts()
+				+ ", avgBorrowMillis=" + getAverageBorrowMillis() + "]";
+	}
+
+	private PooledEntry createEntry() {
+		PooledEntry entry = new PooledEntry(this.factory.get());
+		synchronized (this) {
+			this.all.put(entry.dbAccess, entry);
+		}
+		this.createCount.incrementAndGet();
+		return entry;
+	}
+
+	private void discard(PooledEntry entry) {
+		synchronized (this) {
+			this.all.remove(entry.dbAccess);
+			notifyAll();
+		}
+		this.evictCount.incrementAndGet();
+		entry.dbAccess.close();
+	}
+
+	private void evict() {
+		List<PooledEntry> toCheck = new ArrayList<PooledEntry>();
+		List<PooledEntry> toEvict = new ArrayList<PooledEntry>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			Iterator<PooledEntry> it = this.idle.iterator();
+			while (it.hasNext()) {
+				PooledEntry entry = it.next();
+				if (now - entry.lastUsed > this.idleTimeoutMillis) {
+					it.remove();
+					toEvict.add(entry);
+				} else {
+					// check it outside of the lock
+					it.remove();
+					toCheck.add(entry);
+				}
+			}
+		}
+		for (PooledEntry entry : toEvict)
+			discard(entry);
+		for (PooledEntry entry : toCheck) {
+			if (isHealthy(entry.dbAccess)) {
+				synchronized (this) {
+					if (this.closed) {
+						this.all.remove(entry.dbAccess);
+						entry.dbAccess.close();
+					} else {
+						this.idle.addLast(entry);
+						notifyAll();
+					}
+				}
+			} else
+				discard(entry);
+		}
+		checkCore();
+	}
+
+	/**
+	 * replace failing core instances
+	 */
+	private void checkCore() {
+		for (int i = 0; i < this.core.length(); i++) {
+			IDBAccess dbAccess = this.core.get(i);
+			if (isHealthy(dbAccess))
+				continue;
+			PooledEntry replacement;
+			try {
+				replacement = createEntry();
+			} catch (RuntimeException e) {
+				// keep the failing instance, retry with the next run
+				continue;
+			}
+			PooledEntry failed;
+			synchronized (this) {
+				if (this.closed) {
+					// close() has already closed the core
+					this.all.remove(replacement.dbAccess);
+					failed = replacement;
+				} else {
+					failed = this.all.get(dbAccess);
+					this.core.set(i, replacement.dbAccess);
+				}
+			}
+			discard(failed);
+			if (failed == replacement)
+				return;
+		}
+	}
+
+	private boolean isHealthy(IDBAccess dbAccess) {
+		boolean healthy;
+		try {
+			JcQuery query = new JcQuery();
+			query.setClauses(new IClause[] {
+					NATIVE.cypher(HEALTH_CHECK)
+			});
+			JcQueryResult result = dbAccess.execute(query);
+			healthy = !result.hasErrors();
+		} catch (RuntimeException e) {
+			healthy = false;
+		}
+		if (!healthy)
+			this.healthCheckFailures.incrementAndGet();
+		return healthy;
+	}
+
+	/*********************************************/
+	private static class PooledEntry {
+		private IDBAccess dbAccess;
+		private boolean borrowed;
+		private long lastUsed;
+
+		private PooledEntry(IDBAccess dbAccess) {
+			super();
+			this.dbAccess = dbAccess;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.concurrency.Locking;
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domain.IGenericDomainAccess;
+import iot.jcypher.domain.SyncInfo;
+import iot.jcypher.domainquery.DomainQuery;
+import iot.jcypher.domainquery.QueryLoader;
+import iot.jcypher.domainquery.QueryPersistor;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.transaction.ITransaction;
+
+import java.util.List;
+
+/**
+ * An IDomainAccess forwarding all calls to another IDomainAccess,
+ * to be extended by IDomainAccess wrappers which intercept some of the calls.
+ */
+abstract class DelegatingDomainAccess implements IDomainAccess {
+
+	protected IDomainAccess delegate;
+
+	DelegatingDomainAccess(IDomainAccess delegate) {
+		super();
+		this.delegate = delegate;
+	}
+
+	@Override
+	public List<SyncInfo> getSyncInfos(List<Object> domainObjects) {
+		return this.delegate.getSyncInfos(domainObjects);
+	}
+
+	@Override
+	public SyncInfo getSyncInfo(Object domainObject) {
+		return this.delegate.getSyncInfo(domainObject);
+	}
+
+	@Override
+	public <T> List<T> loadByIds(Class<T> domainObjectClass, int resolutionDepth, long... ids) {
+		return this.delegate.loadByIds(domainObjectClass, resolutionDepth, ids);
+	}
+
+	@Override
+	public <T> T loadById(Class<T> domainObjectClass, int resolutionDepth, long id) {
+		return this.delegate.loadById(domainObjectClass, resolutionDepth, id);
+	}
+
+	@Override
+	public <T> List<T> loadByType(Class<T> domainObjectClass, int resolutionDepth, int offset, int count) {
+		return this.delegate.loadByType(domainObjectClass, resolutionDepth, offset, count);
+	}
+
+	@Override
+	public List<JcError> store(List<?> domainObjects) {
+		return this.delegate.store(domainObjects);
+	}
+
+	@Override
+	public List<JcError> store(Object domainObject) {
+		return this.delegate.store(domainObject);
+	}
+
+	@Override
+	public long numberOfInstancesOf(Class<?> type) {
+		return this.delegate.numberOfInstancesOf(type);
+	}
+
+	@Override
+	public List<Long> numberOfInstancesOf(List<Class<?>> types) {
+		return this.delegate.numberOfInstancesOf(types);
+	}
+
+	@Override
+	public DomainQuery createQuery() {
+		return this.delegate.createQuery();
+	}
+
+	@Override
+	public List<String> getStoredQueryNames() {
+		return this.delegate.getStoredQueryNames();
+	}
+
+	@Override
+	public QueryPersistor createQueryPersistor(DomainQuery query) {
+		return this.delegate.createQueryPersistor(query);
+	}
+
+	@Override
+	public QueryLoader<DomainQuery> createQueryLoader(String queryName) {
+		return this.delegate.createQueryLoader(queryName);
+	}
+
+	@Override
+	public ITransaction beginTX() {
+		return this.delegate.beginTX();
+	}
+
+	@Override
+	public IDomainAccess setLockingStrategy(Locking locking) {
+		this.delegate.setLockingStrategy(locking);
+		return this;
+	}
+
+	@Override
+	public IGenericDomainAccess getGenericDomainAccess() {
+		return this.delegate.getGenericDomainAccess();
+	}
+}
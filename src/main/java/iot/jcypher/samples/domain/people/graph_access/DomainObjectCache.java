@@ -0,0 +1,388 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domain.SyncInfo;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.samples.domain.people.util.DomainObjectWalker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size bounded second-level cache of domain objects keyed by node id,
+ * shared among IDomainAccess instances (see createDomainAccess(..)).
+ * <br/>Only direct loads of the cached types are served: loadById(..) / loadByIds(..) are served from the cache,
+ * objects loaded by type (loadByType(..)) or by id are added to the cache.
+ * Objects reached through references of other loaded objects (e.g. the Area of an Address
+ * loaded together with a Person) are resolved by JCypher itself, they are always read from the database
+ * and are neither served from nor added to the cache.
+ * Only objects of the cached types (and their subtypes) are cached,
+ * the least recently used entry is evicted, when the maximum size is reached.
+ * Storing through a caching IDomainAccess invalidates all stored objects.
+ * <br/>Note: Objects served from the cache are shared among IDomainAccess instances,
+ * but only the IDomainAccess which loaded an object from the database knows its node id.
+ * Cached objects are therefore read-only (e.g. reference data like Areas) for every other IDomainAccess,
+ * see isReadOnly(..):
+ * Storing a graph which contains such an object through a caching IDomainAccess fails with an error
+ * (instead of creating a duplicate), nothing is stored then. To modify a cached object,
+ * store it through the caching IDomainAccess which loaded it from the database (this invalidates it),
+ * or invalidate it explicitly (see invalidate(..)) after storing it through another IDomainAccess.
+ * An object which was evicted from the cache in the meantime is no longer recognized.
+ */
+public class DomainObjectCache {
+
+	private Class<?>[] cachedTypes;
+	private LinkedHashMap<Long, CacheEntry> entries;
+	// node ids of the cached objects by identity
+	private Map<Object, Long> ids;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	/**
+	 * @param maxEntries the maximum number of cached objects
+	 * @param cachedTypes the types of objects to cache, if none are given, objects of any type are cached
+	 */
+	public DomainObjectCache(final int maxEntries, Class<?>... cachedTypes) {
+		super();
+		if (maxEntries <= 0)
+			throw new IllegalArgumentException("max entries must be greater than 0");
+		this.cachedTypes = cachedTypes;
+		this.ids = new IdentityHashMap<Object, Long>();
+		// access order, i.e. LRU
+		this.entries = new LinkedHashMap<Long, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry> eldest) {
+				if (size() > maxEntries) {
+					evictions++;
+					ids.remove(eldest.getValue().object);
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * answer a new IDomainAccess which loads through this cache
+	 * and invalidates stored objects in this cache.
+	 * @param domainAccess the IDomainAccess to wrap
+	 * @return a caching IDomainAccess
+	 */
+	public IDomainAccess createDomainAccess(IDomainAccess domainAccess) {
+		return new CachingDomainAccess(domainAccess);
+	}
+
+	/**
+	 * answer true if objects of the given type are cached
+	 * @param type
+	 * @return true if the type is cached
+	 */
+	public boolean isCached(Class<?> type) {
+		if (this.cachedTypes.length == 0)
+			return true;
+		for (Class<?> cachedType : this.cachedTypes) {
+			if (cachedType.isAssignableFrom(type))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * answer true if objects of the given type or of one of its subtypes are cached
+	 */
+	private boolean mayBeCached(Class<?> type) {
+		if (isCached(type))
+			return true;
+		for (Class<?> cachedType : this.cachedTypes) {
+			if (type.isAssignableFrom(cachedType))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * answer the cached object with the given node id, if it was loaded at least
+	 * with the given resolution depth, else answer null
+	 * @param id
+	 * @param resolutionDepth
+	 * @return a domain object or null
+	 */
+	public synchronized Object get(long id, int resolutionDepth) {
+		CacheEntry entry = this.entries.get(Long.valueOf(id));
+		if (entry != null && covers(entry.resolutionDepth, resolutionDepth)) {
+			this.hits++;
+			return entry.object;
+		}
+		this.misses++;
+		return null;
+	}
+
+	/**
+	 * add an object to the cache
+	 * @param id the node id of the object
+	 * @param object
+	 * @param resolutionDepth the resolution depth with which the object was loaded (-1 means complete)
+	 */
+	public synchronized void put(long id, Object object, int resolutionDepth) {
+		Long key = Long.valueOf(id);
+		CacheEntry entry = this.entries.get(key);
+		// don't replace an object loaded with a greater depth
+		if (entry == null || !covers(entry.resolutionDepth, resolutionDepth)) {
+			if (entry != null)
+				this.ids.remove(entry.object);
+			this.ids.put(object, key);
+			this.entries.put(key, new CacheEntry(object, resolutionDepth));
+		}
+	}
+
+	/**
+	 * answer the node id of a cached object, -1 if the object is not in the cache
+	 * @param object
+	 * @return a node id or -1
+	 */
+	public synchronized long idOf(Object object) {
+		Long id = this.ids.get(object);
+		return id != null ? id.longValue() : -1;
+	}
+
+	/**
+	 * answer true if the given object was served from this cache to the given caching IDomainAccess,
+	 * but was loaded from the database by another IDomainAccess.
+	 * Such an object is read-only for the given IDomainAccess, storing it through it fails.
+	 * @param domainAccess an IDomainAccess created by createDomainAccess(..)
+	 * @param domainObject
+	 * @return true if the object must not be stored through the given IDomainAccess
+	 */
+	public boolean isReadOnly(IDomainAccess domainAccess, Object domainObject) {
+		if (!(domainAccess instanceof CachingDomainAccess) || ((CachingDomainAccess) domainAccess).cache() != this)
+			throw new IllegalArgumentException("not a caching IDomainAccess of this cache");
+		return ((CachingDomainAccess) domainAccess).isForeign(domainObject);
+	}
+
+	/**
+	 * remove the object with the given node id from the cache
+	 * @param id
+	 */
+	public synchronized void invalidate(long id) {
+		CacheEntry entry = this.entries.remove(Long.valueOf(id));
+		if (entry != null) {
+			this.ids.remove(entry.object);
+			this.invalidations++;
+		}
+	}
+
+	/**
+	 * remove all objects from the cache
+	 */
+	public synchronized void invalidateAll() {
+		this.invalidations += this.entries.size();
+		this.entries.clear();
+		this.ids.clear();
+	}
+
+	public synchronized int getSize() {
+		return this.entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	/**
+	 * answer the ratio of hits to all lookups
+	 * @return the hit ratio, 0 if there were no lookups
+	 */
+	public synchronized double getHitRatio() {
+		long lookups = this.hits + this.misses;
+		return lookups == 0 ? 0 : (double) this.hits / lookups;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "DomainObjectCache [size=" + this.entries.size() + ", hits=" + this.hits +
+				", misses=" + this.misses + ", evictions=" + this.evictions +
+				", invalidations=" + this.invalidations + "]";
+	}
+
+	/**
+	 * answer true if an object loaded with resolution depth 'cached'
+	 * can serve a request for resolution depth 'requested' (-1 means complete)
+	 */
+	private static boolean covers(int cached, int requested) {
+		if (cached < 0)
+			return true;
+		return requested >= 0 && cached >= requested;
+	}
+
+	/*********************************************/
+	private static class CacheEntry {
+		private Object object;
+		private int resolutionDepth;
+
+		private CacheEntry(Object object, int resolutionDepth) {
+			super();
+			this.object = object;
+			this.resolutionDepth = resolutionDepth;
+		}
+	}
+
+	/*********************************************/
+	private class CachingDomainAccess extends DelegatingDomainAccess {
+
+		private CachingDomainAccess(IDomainAccess delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public <T> T loadById(Class<T> domainObjectClass, int resolutionDepth, long id) {
+			List<T> loaded = loadByIds(domainObjectClass, resolutionDepth, id);
+			return loaded.isEmpty() ? null : loaded.get(0);
+		}
+
+		@Override
+		public <T> List<T> loadByIds(Class<T> domainObjectClass, int resolutionDepth, long... ids) {
+			if (!mayBeCached(domainObjectClass))
+				return this.delegate.loadByIds(domainObjectClass, resolutionDepth, ids);
+			Map<Long, T> found = new HashMap<Long, T>();
+			long[] toLoad = new long[ids.length];
+			int numToLoad = 0;
+			for (long id : ids) {
+				Object cached = get(id, resolutionDepth);
+				if (cached != null && domainObjectClass.isInstance(cached))
+					found.put(Long.valueOf(id), domainObjectClass.cast(cached));
+				else
+					toLoad[numToLoad++] = id;
+			}
+			if (numToLoad > 0) {
+				List<T> loaded = this.delegate.loadByIds(domainObjectClass, resolutionDepth,
+						Arrays.copyOf(toLoad, numToLoad));
+				for (T obj : loaded) {
+					long id = idOf(obj);
+					if (id >= 0) {
+						found.put(Long.valueOf(id), obj);
+						if (isCached(obj.getClass()))
+							put(id, obj, resolutionDepth);
+					}
+				}
+			}
+			List<T> ret = new ArrayList<T>(ids.length);
+			for (long id : ids) {
+				T obj = found.get(Long.valueOf(id));
+				if (obj != null)
+					ret.add(obj);
+			}
+			return ret;
+		}
+
+		@Override
+		public <T> List<T> loadByType(Class<T> domainObjectClass, int resolutionDepth, int offset, int count) {
+			List<T> loaded = this.delegate.loadByType(domainObjectClass, resolutionDepth, offset, count);
+			for (T obj : loaded) {
+				if (isCached(obj.getClass())) {
+					long id = idOf(obj);
+					if (id >= 0)
+						put(id, obj, resolutionDepth);
+				}
+			}
+			return loaded;
+		}
+
+		@Override
+		public List<JcError> store(List<?> domainObjects) {
+			List<Object> stored = DomainObjectWalker.collect(domainObjects);
+			List<JcError> errors = checkNotForeign(stored);
+			if (!errors.isEmpty())
+				return errors;
+			try {
+				return this.delegate.store(domainObjects);
+			} finally {
+				invalidateStored(stored);
+			}
+		}
+
+		@Override
+		public List<JcError> store(Object domainObject) {
+			return store(Arrays.asList(domainObject));
+		}
+
+		/**
+		 * answer an error for every cached object which is unknown to the delegate,
+		 * i.e. which was loaded by another IDomainAccess; storing it would create a duplicate
+		 */
+		private List<JcError> checkNotForeign(List<Object> domainObjects) {
+			List<JcError> errors = Collections.emptyList();
+			for (Object obj : domainObjects) {
+				if (isForeign(obj)) {
+					if (errors.isEmpty())
+						errors = new ArrayList<JcError>();
+					errors.add(new JcError("DomainObjectCache", "cached object (node id: "
+							+ DomainObjectCache.this.idOf(obj) + ") of type " + obj.getClass().getName()
+							+ " was loaded by another IDomainAccess, it is read-only here", null));
+				}
+			}
+			return errors;
+		}
+
+		private boolean isForeign(Object domainObject) {
+			return isCached(domainObject.getClass()) && idOf(domainObject) < 0
+					&& DomainObjectCache.this.idOf(domainObject) >= 0;
+		}
+
+		private DomainObjectCache cache() {
+			return DomainObjectCache.this;
+		}
+
+		private void invalidateStored(List<Object> domainObjects) {
+			for (Object obj : domainObjects) {
+				if (isCached(obj.getClass())) {
+					long id = idOf(obj);
+					if (id >= 0)
+						invalidate(id);
+				}
+			}
+		}
+
+		private long idOf(Object domainObject) {
+			SyncInfo syncInfo = this.delegate.getSyncInfo(domainObject);
+			return syncInfo != null ? syncInfo.getId() : -1;
+		}
+	}
+}
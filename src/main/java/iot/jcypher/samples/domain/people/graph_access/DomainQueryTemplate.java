@@ -0,0 +1,168 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domainquery.DomainQuery;
+import iot.jcypher.domainquery.api.DomainObjectMatch;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The shape of a domain query, built once per IDomainAccess and thread and then executed many times
+ * with different values bound to the query's parameters.
+ * <br/>A shape expresses values which change from execution to execution as query parameters
+ * (e.g. q.WHERE(person.atttribute("lastName")).EQUALS(q.parameter("lastName"))).
+ * What is saved is building the query (the DSL objects) again.
+ * JCypher generates the Cypher statements from the built query internally on every execution
+ * and offers no way to reuse them, so they are not cached.
+ * <br/>At most maxPrepared prepared queries are held, the least recently used one is dropped
+ * (releasing its IDomainAccess), release(..) drops the prepared queries of an IDomainAccess right away.
+ * <br/>A prepared query is confined to the thread which prepared it,
+ * every thread gets a prepared query of its own.
+ */
+public class DomainQueryTemplate {
+
+	private IQueryShape shape;
+	private LinkedHashMap<PreparedKey, PreparedDomainQuery> prepared;
+	private long builds;
+	private long reuses;
+
+	/**
+	 * @param shape builds the query
+	 * @param maxPrepared the maximum number of prepared queries held
+	 */
+	public DomainQueryTemplate(IQueryShape shape, final int maxPrepared) {
+		super();
+		if (maxPrepared <= 0)
+			throw new IllegalArgumentException("max prepared must be greater than 0");
+		this.shape = shape;
+		// access order, i.e. LRU
+		this.prepared = new LinkedHashMap<PreparedKey, PreparedDomainQuery>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<PreparedKey, PreparedDomainQuery> eldest) {
+				return size() > maxPrepared;
+			}
+		};
+	}
+
+	/**
+	 * answer the query prepared for the given IDomainAccess and the current thread,
+	 * build it if it has not been prepared before
+	 * @param domainAccess
+	 * @return a PreparedDomainQuery, to be used by the current thread only
+	 */
+	public synchronized PreparedDomainQuery prepare(IDomainAccess domainAccess) {
+		PreparedKey key = new PreparedKey(domainAccess, Thread.currentThread());
+		PreparedDomainQuery query = this.prepared.get(key);
+		if (query != null) {
+			this.reuses++;
+		} else {
+			DomainQuery q = domainAccess.createQuery();
+			Map<String, DomainObjectMatch<?>> matches = new HashMap<String, DomainObjectMatch<?>>();
+			this.shape.build(q, matches);
+			query = new PreparedDomainQuery(q, matches, key.thread);
+			this.builds++;
+			this.prepared.put(key, query);
+		}
+		return query;
+	}
+
+	/**
+	 * drop the queries prepared for the given IDomainAccess (by any thread)
+	 * @param domainAccess
+	 */
+	public synchronized void release(IDomainAccess domainAccess) {
+		Iterator<PreparedKey> it = this.prepared.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().domainAccess == domainAccess)
+				it.remove();
+		}
+	}
+
+	/**
+	 * answer the number of prepared queries currently held
+	 * @return the number of prepared queries
+	 */
+	public synchronized int getSize() {
+		return this.prepared.size();
+	}
+
+	/**
+	 * answer the number of times a query was built
+	 * @return the number of builds
+	 */
+	public synchronized long getBuilds() {
+		return builds;
+	}
+
+	/**
+	 * answer the number of times a prepared query was reused
+	 * @return the number of reuses
+	 */
+	public synchronized long getReuses() {
+		return reuses;
+	}
+
+	/*********************************************/
+	/**
+	 * builds the shape of a domain query
+	 */
+	public interface IQueryShape {
+		/**
+		 * build the query, values to be bound at execution time must be query parameters
+		 * @param query a new DomainQuery
+		 * @param matches register the DomainObjectMatch(es) whose results are needed by name
+		 */
+		void build(DomainQuery query, Map<String, DomainObjectMatch<?>> matches);
+	}
+
+	/*********************************************/
+	/**
+	 * IDomainAccess and thread, both compared by identity
+	 */
+	private static class PreparedKey {
+		private IDomainAccess domainAccess;
+		private Thread thread;
+
+		private PreparedKey(IDomainAccess domainAccess, Thread thread) {
+			super();
+			this.domainAccess = domainAccess;
+			this.thread = thread;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(this.domainAccess) + System.identityHashCode(this.thread);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof PreparedKey))
+				return false;
+			PreparedKey other = (PreparedKey) obj;
+			return this.domainAccess == other.domainAccess && this.thread == other.thread;
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domain.SyncInfo;
+import iot.jcypher.domainquery.DomainQueryResult;
+import iot.jcypher.domainquery.api.DomainObjectMatch;
+import iot.jcypher.samples.domain.people.util.ModelComparators;
+import iot.jcypher.samples.domain.people.util.ModelComparators.ModelComparator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Declares which references of loaded domain objects are resolved,
+ * instead of a single resolution depth for all fields.
+ * <br/>A plan consists of paths of field names, e.g. for a list view of persons,
+ * which only needs names and addresses:
+ * <br/>FetchPlan plan = new FetchPlan().include("pointsOfContact.area", 1);
+ * <br/>resolves a person's pointsOfContact (Addresses, EContacts), the areas of the addresses,
+ * and one more level below the areas (Area.partOf), but does not follow mother and father.
+ * <br/>Domain objects are loaded shallow (simple attributes only), then the objects on the planned
+ * paths are resolved level by level, one batch per level.
+ * <br/>Note: JCypher resolves all references of an object at once, so the unplanned references
+ * of a resolved object (e.g. mother and father of a person) are loaded shallow,
+ * with their own attributes only; they are not followed any further.
+ * <br/>A plan is not modified by applying it, once all paths are included
+ * it can be shared by multiple threads.
+ */
+public class FetchPlan {
+
+	private final PlanNode root;
+
+	public FetchPlan() {
+		super();
+		this.root = new PlanNode();
+	}
+
+	/**
+	 * include a path of references, e.g. "pointsOfContact.area"
+	 * @param path field names separated by '.'
+	 * @return this plan
+	 */
+	public FetchPlan include(String path) {
+		return include(path, 0);
+	}
+
+	/**
+	 * include a path of references, and resolve the objects at the end of the path
+	 * by the given number of additional levels (following all their references)
+	 * @param path field names separated by '.'
+	 * @param depth the number of additional levels
+	 * @return this plan
+	 */
+	public FetchPlan include(String path, int depth) {
+		if (depth < 0)
+			throw new IllegalArgumentException("depth must not be negative");
+		PlanNode node = this.root;
+		for (String field : path.split("\\.")) {
+			if (field.isEmpty())
+				throw new IllegalArgumentException("invalid path: " + path);
+			node = node.child(field);
+		}
+		if (depth > node.depth)
+			node.setDepth(depth);
+		return this;
+	}
+
+	/**
+	 * load domain objects by id and resolve them according to the plan
+	 * @param domainAccess
+	 * @param domainObjectClass
+	 * @param ids
+	 * @return a list of domain objects
+	 */
+	public <T> List<T> loadByIds(IDomainAccess domainAccess, Class<T> domainObjectClass, long... ids) {
+		List<T> ret = domainAccess.loadByIds(domainObjectClass, 0, ids);
+		apply(domainAccess, ret);
+		return ret;
+	}
+
+	/**
+	 * load domain objects by type and resolve them according to the plan
+	 * @param domainAccess
+	 * @param domainObjectClass
+	 * @param offset
+	 * @param count -1 means all
+	 * @return a list of domain objects
+	 */
+	public <T> List<T> loadByType(IDomainAccess domainAccess, Class<T> domainObjectClass,
+			int offset, int count) {
+		List<T> ret = domainAccess.loadByType(domainObjectClass, 0, offset, count);
+		apply(domainAccess, ret);
+		return ret;
+	}
+
+	/**
+	 * answer the result of a domain query match, resolved according to the plan.
+	 * <br/>Note: JCypher loads domain query results with full resolution depth, so the plan
+	 * does not reduce what a query loads; it completes the planned paths
+	 * of objects which have been loaded shallow before (by the same IDomainAccess).
+	 * To load query results according to a plan, use the ids of the matching objects
+	 * with loadByIds(..).
+	 * @param domainAccess the IDomainAccess which executed the query
+	 * @param result
+	 * @param match
+	 * @return a list of domain objects
+	 */
+	public <T> List<T> resultOf(IDomainAccess domainAccess, DomainQueryResult result,
+			DomainObjectMatch<T> match) {
+		List<T> ret = result.resultOf(match);
+		apply(domainAccess, ret);
+		return ret;
+	}
+
+	/**
+	 * resolve already loaded domain objects according to the plan
+	 * @param domainAccess the IDomainAccess which loaded the domain objects
+	 * @param domainObjects
+	 * @return the number of objects which were resolved
+	 */
+	public int apply(IDomainAccess domainAccess, List<?> domainObjects) {
+		List<Step> level = new ArrayList<Step>();
+		for (Object obj : domainObjects) {
+			if (obj != null)
+				level.add(new Step(obj, this.root));
+		}
+		// every object is resolved once, references may form cycles
+		Set<Object> resolved = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		int count = 0;
+		while (!level.isEmpty()) {
+			List<Long> ids = new ArrayList<Long>();
+			List<Long> collectionIds = new ArrayList<Long>();
+			for (Step step : level) {
+				if (step.node.isLeaf() || !resolved.add(step.object))
+					continue;
+				SyncInfo syncInfo = domainAccess.getSyncInfo(step.object);
+				if (syncInfo != null && syncInfo.getId() >= 0) {
+					if (followsCollection(step))
+						collectionIds.add(Long.valueOf(syncInfo.getId()));
+					else
+						ids.add(Long.valueOf(syncInfo.getId()));
+				}
+			}
+			// reloading fills in the references of the already loaded objects,
+			// the elements of a collection are one level further down than the collection itself
+			count += reload(domainAccess, ids, 1);
+			count += reload(domainAccess, collectionIds, 2);
+			level = nextLevel(level);
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		this.root.toString(null, sb);
+		return sb.toString();
+	}
+
+	private static int reload(IDomainAccess domainAccess, List<Long> ids, int resolutionDepth) {
+		if (ids.isEmpty())
+			return 0;
+		long[] idArray = new long[ids.size()];
+		for (int i = 0; i < idArray.length; i++)
+			idArray[i] = ids.get(i).longValue();
+		domainAccess.loadByIds(Object.class, resolutionDepth, idArray);
+		return idArray.length;
+	}
+
+	/**
+	 * answer true if a collection field of the step's object is followed
+	 */
+	private static boolean followsCollection(Step step) {
+		ModelComparator comparator = ModelComparators.comparatorFor(step.object.getClass());
+		if (comparator == null)
+			return false;
+		for (int i = 0; i < comparator.getFieldCount(); i++) {
+			if (!comparator.isSimpleField(i) && Collection.class.isAssignableFrom(comparator.getFieldType(i)) &&
+					step.node.childFor(comparator.getFieldName(i)) != null)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * answer the objects referenced via planned fields by the objects of the given level
+	 */
+	private static List<Step> nextLevel(List<Step> level) {
+		List<Step> next = new ArrayList<Step>();
+		// an object may be reached via different paths, follow each path once
+		Map<Object, List<PlanNode>> visited = new IdentityHashMap<Object, List<PlanNode>>();
+		for (Step step : level) {
+			if (step.node.isLeaf())
+				continue;
+			ModelComparator comparator = ModelComparators.comparatorFor(step.object.getClass());
+			if (comparator == null)
+				continue;
+			for (int i = 0; i < comparator.getFieldCount(); i++) {
+				if (comparator.isSimpleField(i))
+					continue;
+				PlanNode child = step.node.childFor(comparator.getFieldName(i));
+				if (child == null)
+					continue;
+				Object value = comparator.getFieldValue(i, step.object);
+				if (value instanceof List<?>) {
+					for (Object elem : (List<?>) value)
+						addStep(elem, child, visited, next);
+				} else
+					addStep(value, child, visited, next);
+			}
+		}
+		return next;
+	}
+
+	private static void addStep(Object obj, PlanNode node, Map<Object, List<PlanNode>> visited,
+			List<Step> next) {
+		if (obj == null || ModelComparators.comparatorFor(obj.getClass()) == null)
+			return;
+		List<PlanNode> nodes = visited.get(obj);
+		if (nodes == null) {
+			nodes = new ArrayList<PlanNode>();
+			visited.put(obj, nodes);
+		} else if (nodes.contains(node))
+			return;
+		nodes.add(node);
+		next.add(new Step(obj, node));
+	}
+
+	/*********************************************/
+	private static class PlanNode {
+		private Map<String, PlanNode> children;
+		private int depth;
+		private PlanNode anyField;
+
+		private PlanNode() {
+			super();
+			this.children = new LinkedHashMap<String, PlanNode>();
+		}
+
+		private PlanNode child(String field) {
+			PlanNode ret = this.children.get(field);
+			if (ret == null) {
+				ret = new PlanNode();
+				this.children.put(field, ret);
+			}
+			return ret;
+		}
+
+		/**
+		 * set the number of additional levels,
+		 * and build the nodes for the objects referenced via any field
+		 */
+		private void setDepth(int depth) {
+			this.depth = depth;
+			if (depth > 0) {
+				this.anyField = new PlanNode();
+				this.anyField.setDepth(depth - 1);
+			} else
+				this.anyField = null;
+		}
+
+		/**
+		 * answer the node for the objects referenced via the given field,
+		 * null if the field is not followed
+		 */
+		private PlanNode childFor(String field) {
+			PlanNode ret = this.children.get(field);
+			if (ret != null)
+				return ret;
+			return this.anyField;
+		}
+
+		/**
+		 * answer true if objects of this node need not be resolved
+		 */
+		private boolean isLeaf() {
+			return this.depth == 0 && this.children.isEmpty();
+		}
+
+		private void toString(String path, StringBuilder sb) {
+			if (path != null && (this.depth > 0 || this.children.isEmpty())) {
+				if (sb.length() > 0)
+					sb.append(", ");
+				sb.append(path);
+				if (this.depth > 0)
+					sb.append('(').append(this.depth).append(')');
+			}
+			for (Map.Entry<String, PlanNode> entry : this.children.entrySet())
+				entry.getValue().toString(path == null ? entry.getKey() : path + '.' + entry.getKey(), sb);
+		}
+	}
+
+	/*********************************************/
+	private static class Step {
+		private Object object;
+		private PlanNode node;
+
+		private Step(Object object, PlanNode node) {
+			super();
+			this.object = object;
+			this.node = node;
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.database.IDBAccess;
+import iot.jcypher.graph.GrLabel;
+import iot.jcypher.graph.GrNode;
+import iot.jcypher.graph.GrProperty;
+import iot.jcypher.graph.GrRelation;
+import iot.jcypher.query.JcQuery;
+import iot.jcypher.query.JcQueryResult;
+import iot.jcypher.query.api.IClause;
+import iot.jcypher.query.factories.clause.NATIVE;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.query.values.JcNode;
+import iot.jcypher.query.values.JcNumber;
+import iot.jcypher.query.values.JcRelation;
+import iot.jcypher.samples.domain.people.graph_access.GraphSnapshotFormat.Output;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports the graph of a database (e.g. a loaded domain) into a binary snapshot,
+ * which can be imported by a GraphSnapshotImporter much faster than replaying a Cypher dump
+ * (see GraphSnapshotFormat for the format).
+ * <br/>Nodes and relations are read in windows of consecutive ids, ordered by their ids
+ * (see CypherDumpExporter.idWindow(..)).
+ * Only the ids of the exported nodes (one long per node) are kept in memory.
+ * <br/>The export can be restricted to the nodes of a domain and the relations between them
+ * (see setDomain(..)).
+ * <br/>Note: JCypher does not answer list valued properties of relations,
+ * the export fails with an error, if it encounters one.
+ */
+public class GraphSnapshotExporter {
+
+	private IDBAccess dbAccess;
+	private String domainName;
+	private int pageSize;
+	private long nodesExported;
+	private long relationsExported;
+
+	/**
+	 * @param dbAccess the database to export
+	 */
+	public GraphSnapshotExporter(IDBAccess dbAccess) {
+		super();
+		this.dbAccess = dbAccess;
+		this.pageSize = 10000;
+	}
+
+	/**
+	 * export the graph into a snapshot file
+	 * @param file
+	 * @return a list of errors, which is empty if the export was successful
+	 */
+	public List<JcError> export(File file) {
+		List<JcError> errors = new ArrayList<JcError>();
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+			Output output = new Output(out);
+			output.writeBytes(GraphSnapshotFormat.MAGIC);
+			output.writeByte(GraphSnapshotFormat.VERSION);
+			Dictionary dictionary = new Dictionary();
+			long[] nodeIds = new long[1024];
+			this.nodesExported = 0;
+			this.relationsExported = 0;
+			String scope = this.domainName != null
+					? CypherDumpExporter.domainScope(this.dbAccess, this.domainName) : null;
+
+			// node table
+			String where = scope != null ? " AND " + scope.replace("#", "n") : "";
+			JcQueryResult maxResult = execute("MATCH (n)", CypherDumpExporter.returnMaxId("n"));
+			if (maxResult.hasErrors())
+				return iot.jcypher.util.Util.collectErrors(maxResult);
+			long maxId = CypherDumpExporter.maxIdOf(maxResult);
+			for (long from = 0; from <= maxId; from += this.pageSize) {
+				JcQueryResult result = execute(
+						CypherDumpExporter.idWindow(from, Math.min(maxId, from + this.pageSize - 1))
+								+ " MATCH (n) WHERE id(n) = i" + where,
+						"RETURN n ORDER BY id(n)");
+				if (result.hasErrors())
+					return iot.jcypher.util.Util.collectErrors(result);
+				List<GrNode> nodes = result.resultOf(new JcNode("n"));
+				for (GrNode node : nodes) {
+					List<GrLabel> labels = node.getLabels();
+					output.writeVarLong(labels.size());
+					for (GrLabel label : labels)
+						output.writeVarLong(dictionary.indexOf(label.getName()));
+					writeProperties(node.getProperties(), dictionary, output);
+					if (this.nodesExported == nodeIds.length)
+						nodeIds = Arrays.copyOf(nodeIds, nodeIds.length * 2);
+					nodeIds[(int) this.nodesExported++] = node.getId();
+				}
+			}
+
+			// relation table
+			long relationTableOffset = output.getPosition();
+			where = scope != null ? " AND " + scope.replace("#", "a") + " AND " + scope.replace("#", "b") : "";
+			maxResult = execute("MATCH ()-[r]->()", CypherDumpExporter.returnMaxId("r"));
+			if (maxResult.hasErrors())
+				return iot.jcypher.util.Util.collectErrors(maxResult);
+			maxId = CypherDumpExporter.maxIdOf(maxResult);
+			for (long from = 0; from <= maxId; from += this.pageSize) {
+				JcQueryResult result = execute(
+						CypherDumpExporter.idWindow(from, Math.min(maxId, from + this.pageSize - 1))
+								+ " MATCH (a)-[r]->(b) WHERE id(r) = i" + where,
+						"RETURN id(a) AS start, r, id(b) AS end, size(keys(r)) AS props ORDER BY id(r)");
+				if (result.hasErrors())
+					return iot.jcypher.util.Util.collectErrors(result);
+				List<BigDecimal> starts = result.resultOf(new JcNumber("start"));
+				List<GrRelation> relations = result.resultOf(new JcRelation("r"));
+				List<BigDecimal> ends = result.resultOf(new JcNumber("end"));
+				List<BigDecimal> props = result.resultOf(new JcNumber("props"));
+				for (int i = 0; i < relations.size(); i++) {
+					GrRelation relation = relations.get(i);
+					int start = Arrays.binarySearch(nodeIds, 0, (int) this.nodesExported, starts.get(i).longValue());
+					int end = Arrays.binarySearch(nodeIds, 0, (int) this.nodesExported, ends.get(i).longValue());
+					if (start < 0 || end < 0) {
+						errors.add(new JcError("GraphSnapshotExporter",
+								"relation " + relation.getId() + " references a node which was not exported", null));
+						return errors;
+					}
+					// JCypher does not answer list valued properties of relations
+					if (relation.getProperties().size() != props.get(i).intValue()) {
+						errors.add(new JcError("GraphSnapshotExporter",
+								"relation " + relation.getId() + " has properties which cannot be exported", null));
+						return errors;
+					}
+					output.writeVarLong(start);
+					output.writeVarLong(end);
+					output.writeVarLong(dictionary.indexOf(relation.getType()));
+					writeProperties(relation.getProperties(), dictionary, output);
+					this.relationsExported++;
+				}
+			}
+
+			// dictionary and trailer
+			long dictionaryOffset = output.getPosition();
+			output.writeVarLong(dictionary.strings.size());
+			for (String str : dictionary.strings)
+				output.writeString(str);
+			output.writeLong(this.nodesExported);
+			output.writeLong(this.relationsExported);
+			output.writeLong(relationTableOffset);
+			output.writeLong(dictionaryOffset);
+		} catch (IOException e) {
+			errors.add(new JcError("GraphSnapshotExporter", e.getMessage(), e.getClass().getName()));
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					errors.add(new JcError("GraphSnapshotExporter", e.getMessage(), e.getClass().getName()));
+				}
+			}
+		}
+		return errors;
+	}
+
+	/**
+	 * answer the number of nodes exported by the last export
+	 * @return the number of nodes
+	 */
+	public long getNodesExported() {
+		return nodesExported;
+	}
+
+	/**
+	 * answer the number of relations exported by the last export
+	 * @return the number of relations
+	 */
+	public long getRelationsExported() {
+		return relationsExported;
+	}
+
+	/**
+	 * @param domainName the domain to export, if null (the default), the whole database is exported
+	 */
+	public void setDomain(String domainName) {
+		this.domainName = domainName;
+	}
+
+	/**
+	 * @param pageSize the number of consecutive ids read by one query
+	 */
+	public void setPageSize(int pageSize) {
+		if (pageSize <= 0)
+			throw new IllegalArgumentException("page size must be greater than 0");
+		this.pageSize = pageSize;
+	}
+
+	private JcQueryResult execute(String... cypher) {
+		JcQuery query = new JcQuery();
+		query.setClauses(new IClause[] {
+				NATIVE.cypher(cypher)
+		});
+		return this.dbAccess.execute(query);
+	}
+
+	private static void writeProperties(List<GrProperty> properties, Dictionary dictionary,
+			Output output) throws IOException {
+		output.writeVarLong(properties.size());
+		for (GrProperty property : properties) {
+			output.writeVarLong(dictionary.indexOf(property.getName()));
+			output.writeValue(property.getValue());
+		}
+	}
+
+	/*********************************************/
+	private static class Dictionary {
+		private Map<String, Integer> indices;
+		private List<String> strings;
+
+		private Dictionary() {
+			super();
+			this.indices = new HashMap<String, Integer>();
+			this.strings = new ArrayList<String>();
+		}
+
+		private int indexOf(String str) {
+			Integer index = this.indices.get(str);
+			if (index == null) {
+				index = Integer.valueOf(this.strings.size());
+				this.indices.put(str, index);
+				this.strings.add(str);
+			}
+			return index.intValue();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary format of graph snapshots (see GraphSnapshotExporter, GraphSnapshotImporter):
+ * <br/>header: magic "JCGS", version byte
+ * <br/>node table: per node: label count, label indices, property count, (key index, value)*
+ * <br/>relation table: per relation: start node index, end node index, type index,
+ * property count, (key index, value)*
+ * <br/>dictionary: count, strings (labels, relation types and property keys)
+ * <br/>trailer: node count, relation count, offset of the relation table,
+ * offset of the dictionary (8 bytes each).
+ * <br/>Nodes are referenced by their index in the node table, all counts, indices and
+ * integral values are varints (integral values zigzag encoded); strings are UTF-8,
+ * prefixed by their length.
+ */
+final class GraphSnapshotFormat {
+
+	static final byte[] MAGIC = new byte[] {'J', 'C', 'G', 'S'};
+	static final byte VERSION = 1;
+	static final int HEADER_SIZE = MAGIC.length + 1;
+	static final int TRAILER_SIZE = 4 * 8;
+
+	static final byte NULL = 0;
+	static final byte STRING = 1;
+	static final byte LONG = 2;
+	static final byte DOUBLE = 3;
+	static final byte TRUE = 4;
+	static final byte FALSE = 5;
+	static final byte LIST = 6;
+
+	private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+	private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+	private GraphSnapshotFormat() {
+		super();
+	}
+
+	static long readVarLong(ByteBuffer buf) {
+		long ret = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = buf.get();
+			ret |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return ret;
+		}
+	}
+
+	static int readVarInt(ByteBuffer buf) {
+		return (int) readVarLong(buf);
+	}
+
+	static String readString(ByteBuffer buf) {
+		int length = readVarInt(buf);
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static Object readValue(ByteBuffer buf) {
+		byte tag = buf.get();
+		switch (tag) {
+		case NULL:
+			return null;
+		case STRING:
+			return readString(buf);
+		case LONG:
+			long zigzag = readVarLong(buf);
+			return Long.valueOf((zigzag >>> 1) ^ -(zigzag & 1));
+		case DOUBLE:
+			return Double.valueOf(buf.getDouble());
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case LIST:
+			int size = readVarInt(buf);
+			List<Object> list = new ArrayList<Object>(size);
+			for (int i = 0; i < size; i++)
+				list.add(readValue(buf));
+			return list;
+		default:
+			throw new IllegalStateException("invalid value tag: " + tag);
+		}
+	}
+
+	/*********************************************/
+	/**
+	 * writes the elements of the format, keeps track of the position
+	 */
+	static class Output {
+		private OutputStream out;
+		private long position;
+
+		Output(OutputStream out) {
+			super();
+			this.out = out;
+		}
+
+		long getPosition() {
+			return position;
+		}
+
+		void writeByte(int b) throws IOException {
+			this.out.write(b);
+			this.position++;
+		}
+
+		void writeBytes(byte[] bytes) throws IOException {
+			this.out.write(bytes);
+			this.position += bytes.length;
+		}
+
+		void writeLong(long value) throws IOException {
+			for (int i = 56; i >= 0; i -= 8)
+				writeByte((int) (value >>> i));
+		}
+
+		void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				writeByte((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			writeByte((int) value);
+		}
+
+		void writeString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(bytes.length);
+			writeBytes(bytes);
+		}
+
+		void writeValue(Object value) throws IOException {
+			if (value == null)
+				writeByte(NULL);
+			else if (value instanceof String) {
+				writeByte(STRING);
+				writeString((String) value);
+			} else if (value instanceof Boolean)
+				writeByte(((Boolean) value).booleanValue() ? TRUE : FALSE);
+			else if (value instanceof Number) {
+				Number num = (Number) value;
+				if (isIntegral(num)) {
+					long l = num.longValue();
+					writeByte(LONG);
+					writeVarLong((l << 1) ^ (l >> 63));
+				} else {
+					writeByte(DOUBLE);
+					writeLong(Double.doubleToLongBits(num.doubleValue()));
+				}
+			} else if (value instanceof List<?>) {
+				List<?> list = (List<?>) value;
+				writeByte(LIST);
+				writeVarLong(list.size());
+				for (Object elem : list)
+					writeValue(elem);
+			} else if (value instanceof Object[]) {
+				Object[] array = (Object[]) value;
+				writeByte(LIST);
+				writeVarLong(array.length);
+				for (Object elem : array)
+					writeValue(elem);
+			} else {
+				writeByte(STRING);
+				writeString(value.toString());
+			}
+		}
+
+		/**
+		 * answer true if the number stems from an integral value.
+		 * <br/>Remote access answers numbers as BigDecimal, parsed from their JSON representation,
+		 * where integral values have neither a fraction nor an exponent (scale 0),
+		 * while floating point values have (e.g. 2.0 or 1.0E10), so a double is never taken as integral.
+		 */
+		static boolean isIntegral(Number num) {
+			if (num instanceof Long || num instanceof Integer || num instanceof Short || num instanceof Byte)
+				return true;
+			if (num instanceof BigDecimal) {
+				BigDecimal dec = (BigDecimal) num;
+				if (dec.scale() != 0)
+					return false;
+				BigInteger integer = dec.unscaledValue();
+				return integer.compareTo(MIN_LONG) >= 0 && integer.compareTo(MAX_LONG) <= 0;
+			}
+			if (num instanceof BigInteger) {
+				BigInteger integer = (BigInteger) num;
+				return integer.compareTo(MIN_LONG) >= 0 && integer.compareTo(MAX_LONG) <= 0;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.database.IDBAccess;
+import iot.jcypher.query.JcQuery;
+import iot.jcypher.query.JcQueryResult;
+import iot.jcypher.query.api.IClause;
+import iot.jcypher.query.api.pattern.Element;
+import iot.jcypher.query.api.pattern.Node;
+import iot.jcypher.query.api.pattern.Relation;
+import iot.jcypher.query.factories.clause.CREATE;
+import iot.jcypher.query.factories.clause.MATCH;
+import iot.jcypher.query.factories.clause.RETURN;
+import iot.jcypher.query.factories.clause.WHERE;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.query.values.JcNode;
+import iot.jcypher.query.values.JcNumber;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imports a binary snapshot written by a GraphSnapshotExporter into a database,
+ * e.g. to reset a test database to a known domain state.
+ * <br/>The snapshot is read through a memory mapped buffer, nodes and relations are created
+ * in batches, every batch in a query (and transaction) of its own.
+ * Nodes get new ids, only the mapping of node index to new node id is kept in memory.
+ * <br/>Note: A snapshot file is mapped as a whole, so it is limited to 2 GB.
+ */
+public class GraphSnapshotImporter {
+
+	private IDBAccess dbAccess;
+	private int batchSize;
+	private boolean clearDatabase;
+	private long nodesImported;
+	private long relationsImported;
+
+	/**
+	 * @param dbAccess the database to import into
+	 */
+	public GraphSnapshotImporter(IDBAccess dbAccess) {
+		super();
+		this.dbAccess = dbAccess;
+		this.batchSize = 1000;
+	}
+
+	/**
+	 * import a snapshot file
+	 * @param file
+	 * @return a list of errors, which is empty if the import was successful
+	 */
+	public List<JcError> importSnapshot(File file) {
+		List<JcError> errors = new ArrayList<JcError>();
+		this.nodesImported = 0;
+		this.relationsImported = 0;
+		ByteBuffer buf;
+		try {
+			buf = map(file);
+		} catch (IOException e) {
+			errors.add(new JcError("GraphSnapshotImporter", e.getMessage(), e.getClass().getName()));
+			return errors;
+		}
+		boolean valid = buf.limit() >= GraphSnapshotFormat.HEADER_SIZE + GraphSnapshotFormat.TRAILER_SIZE;
+		if (valid) {
+			byte[] magic = new byte[GraphSnapshotFormat.MAGIC.length];
+			buf.get(magic);
+			valid = Arrays.equals(GraphSnapshotFormat.MAGIC, magic) && buf.get() == GraphSnapshotFormat.VERSION;
+		}
+		if (!valid) {
+			errors.add(new JcError("GraphSnapshotImporter", "not a graph snapshot: " + file, null));
+			return errors;
+		}
+		buf.position(buf.limit() - GraphSnapshotFormat.TRAILER_SIZE);
+		long nodeCount = buf.getLong();
+		long relationCount = buf.getLong();
+		long relationTableOffset = buf.getLong();
+		long dictionaryOffset = buf.getLong();
+
+		buf.position((int) dictionaryOffset);
+		String[] dictionary = new String[GraphSnapshotFormat.readVarInt(buf)];
+		for (int i = 0; i < dictionary.length; i++)
+			dictionary[i] = GraphSnapshotFormat.readString(buf);
+
+		if (this.clearDatabase) {
+			errors.addAll(this.dbAccess.clearDatabase());
+			if (!errors.isEmpty())
+				return errors;
+		}
+
+		// node table
+		buf.position(GraphSnapshotFormat.HEADER_SIZE);
+		long[] nodeIds = new long[(int) nodeCount];
+		List<IClause> clauses = new ArrayList<IClause>();
+		List<IClause> returns = new ArrayList<IClause>();
+		for (int i = 0; i < nodeIds.length; i++) {
+			JcNode n = new JcNode("n" + returns.size());
+			Node create = CREATE.node(n);
+			int labelCount = GraphSnapshotFormat.readVarInt(buf);
+			for (int j = 0; j < labelCount; j++)
+				create = create.label(dictionary[GraphSnapshotFormat.readVarInt(buf)]);
+			clauses.add(readProperties(create, buf, dictionary));
+			returns.add(RETURN.value(n.id()).AS(new JcNumber("id" + returns.size())));
+			if (returns.size() == this.batchSize || i == nodeIds.length - 1) {
+				clauses.addAll(returns);
+				JcQueryResult result = execute(clauses);
+				if (result.hasErrors())
+					return iot.jcypher.util.Util.collectErrors(result);
+				int first = i - returns.size() + 1;
+				for (int j = 0; j < returns.size(); j++) {
+					List<BigDecimal> id = result.resultOf(new JcNumber("id" + j));
+					nodeIds[first + j] = id.get(0).longValue();
+				}
+				this.nodesImported += returns.size();
+				clauses.clear();
+				returns.clear();
+			}
+		}
+
+		// relation table
+		buf.position((int) relationTableOffset);
+		Map<Integer, JcNode> matched = new HashMap<Integer, JcNode>();
+		List<IClause> matches = new ArrayList<IClause>();
+		int batched = 0;
+		for (long i = 0; i < relationCount; i++) {
+			JcNode start = matchNode(GraphSnapshotFormat.readVarInt(buf), nodeIds, matched, matches);
+			JcNode end = matchNode(GraphSnapshotFormat.readVarInt(buf), nodeIds, matched, matches);
+			Relation create = CREATE.node(start).relation().out()
+					.type(dictionary[GraphSnapshotFormat.readVarInt(buf)]);
+			clauses.add(readProperties(create, buf, dictionary).node(end));
+			batched++;
+			if (batched == this.batchSize || i == relationCount - 1) {
+				matches.addAll(clauses);
+				JcQueryResult result = execute(matches);
+				if (result.hasErrors())
+					return iot.jcypher.util.Util.collectErrors(result);
+				this.relationsImported += batched;
+				matched.clear();
+				matches.clear();
+				clauses.clear();
+				batched = 0;
+			}
+		}
+		return errors;
+	}
+
+	/**
+	 * answer the number of nodes created by the last import
+	 * @return the number of nodes
+	 */
+	public long getNodesImported() {
+		return nodesImported;
+	}
+
+	/**
+	 * answer the number of relations created by the last import
+	 * @return the number of relations
+	 */
+	public long getRelationsImported() {
+		return relationsImported;
+	}
+
+	/**
+	 * @param batchSize the number of nodes or relations created by one query
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batch size must be greater than 0");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param clearDatabase if true, the database is cleared before importing,
+	 * so that it contains exactly the snapshot's graph afterwards
+	 */
+	public void setClearDatabase(boolean clearDatabase) {
+		this.clearDatabase = clearDatabase;
+	}
+
+	private JcQueryResult execute(List<IClause> clauses) {
+		JcQuery query = new JcQuery();
+		query.setClauses(clauses.toArray(new IClause[clauses.size()]));
+		return this.dbAccess.execute(query);
+	}
+
+	/**
+	 * answer the variable, the node with the given index is matched by (in the current batch)
+	 */
+	private static JcNode matchNode(int index, long[] nodeIds, Map<Integer, JcNode> matched,
+			List<IClause> matches) {
+		Integer key = Integer.valueOf(index);
+		JcNode n = matched.get(key);
+		if (n == null) {
+			n = new JcNode("n" + matched.size());
+			matched.put(key, n);
+			matches.add(MATCH.node(n));
+			matches.add(WHERE.valueOf(n.id()).EQUALS(nodeIds[index]));
+		}
+		return n;
+	}
+
+	private static <T extends Element<T>> T readProperties(T element, ByteBuffer buf, String[] dictionary) {
+		T ret = element;
+		int propertyCount = GraphSnapshotFormat.readVarInt(buf);
+		for (int i = 0; i < propertyCount; i++) {
+			String key = dictionary[GraphSnapshotFormat.readVarInt(buf)];
+			Object value = GraphSnapshotFormat.readValue(buf);
+			if (value instanceof List<?>)
+				ret = ret.property(key).values((List<?>) value);
+			else if (value != null)
+				ret = ret.property(key).value(value);
+		}
+		return ret;
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("snapshot too large to be mapped: " + file);
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+}
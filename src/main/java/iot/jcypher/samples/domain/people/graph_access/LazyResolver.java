@@ -0,0 +1,205 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domain.SyncInfo;
+import iot.jcypher.samples.domain.people.util.ModelComparators;
+import iot.jcypher.samples.domain.people.util.ModelComparators.ModelComparator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads domain objects shallow (simple attributes only) and resolves their references
+ * (e.g. Person.mother, Area.partOf, Subject.pointsOfContact) on demand, level by level.
+ * <br/>Resolving a level loads all not yet resolved objects of that level in one batch,
+ * with resolution depth 1, which fills in the references of these (already loaded) objects
+ * with shallow objects of the next level.
+ * <br/>The number of objects loaded by one call to resolve(..) is limited by the fetch budget,
+ * so a response can be produced quickly, and deeper levels are resolved when they are needed.
+ * <br/>Note: The model classes are plain classes, so references are not resolved transparently
+ * on access; call resolve(..) before navigating the references of an object.
+ * All objects must be loaded through the same LazyResolver (i.e. the same IDomainAccess).
+ */
+public class LazyResolver {
+
+	private IDomainAccess domainAccess;
+	private int fetchBudget;
+	private Set<Object> resolved;
+	private long objectsResolved;
+	private long batches;
+
+	/**
+	 * @param domainAccess the IDomainAccess to load through
+	 * @param fetchBudget the maximum number of objects loaded by one call to resolve(..)
+	 */
+	public LazyResolver(IDomainAccess domainAccess, int fetchBudget) {
+		super();
+		if (fetchBudget <= 0)
+			throw new IllegalArgumentException("fetch budget must be greater than 0");
+		this.domainAccess = domainAccess;
+		this.fetchBudget = fetchBudget;
+		this.resolved = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+	}
+
+	/**
+	 * load domain objects by id, shallow, i.e. without resolving their references
+	 * @param domainObjectClass
+	 * @param ids
+	 * @return a list of shallow domain objects
+	 */
+	public <T> List<T> loadByIds(Class<T> domainObjectClass, long... ids) {
+		return this.domainAccess.loadByIds(domainObjectClass, 0, ids);
+	}
+
+	/**
+	 * load domain objects by type, shallow, i.e. without resolving their references
+	 * @param domainObjectClass
+	 * @param offset
+	 * @param count -1 means all
+	 * @return a list of shallow domain objects
+	 */
+	public <T> List<T> loadByType(Class<T> domainObjectClass, int offset, int count) {
+		return this.domainAccess.loadByType(domainObjectClass, 0, offset, count);
+	}
+
+	/**
+	 * resolve the direct references of a domain object
+	 * @param domainObject
+	 * @return the domain object
+	 */
+	public <T> T resolve(T domainObject) {
+		resolve(Arrays.asList(domainObject), 1);
+		return domainObject;
+	}
+
+	/**
+	 * resolve the references of the given domain objects, level by level,
+	 * until the given number of levels is resolved, until no unresolved references are left,
+	 * or until the fetch budget is exhausted.
+	 * @param domainObjects
+	 * @param levels the number of levels to resolve, -1 means as many as the budget allows
+	 * @return the number of objects loaded
+	 */
+	public int resolve(List<?> domainObjects, int levels) {
+		List<Object> level = new ArrayList<Object>(domainObjects);
+		// every object is visited once per call, references may form cycles
+		Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		visited.addAll(level);
+		int loaded = 0;
+		for (int depth = 0; (levels < 0 || depth < levels) && !level.isEmpty(); depth++) {
+			List<Object> toResolve = new ArrayList<Object>();
+			List<Long> ids = new ArrayList<Long>();
+			for (Object obj : level) {
+				if (loaded + toResolve.size() >= this.fetchBudget)
+					break;
+				if (obj == null || this.resolved.contains(obj))
+					continue;
+				SyncInfo syncInfo = this.domainAccess.getSyncInfo(obj);
+				if (syncInfo != null && syncInfo.getId() >= 0) {
+					toResolve.add(obj);
+					ids.add(Long.valueOf(syncInfo.getId()));
+				}
+			}
+			if (!ids.isEmpty()) {
+				long[] idArray = new long[ids.size()];
+				for (int i = 0; i < idArray.length; i++)
+					idArray[i] = ids.get(i).longValue();
+				// reloading with depth 1 fills in the references of the already loaded objects
+				this.domainAccess.loadByIds(Object.class, 1, idArray);
+				this.resolved.addAll(toResolve);
+				loaded += toResolve.size();
+				this.objectsResolved += toResolve.size();
+				this.batches++;
+			}
+			if (loaded >= this.fetchBudget)
+				break;
+			level = nextLevel(level, visited);
+		}
+		return loaded;
+	}
+
+	/**
+	 * answer true if the references of the domain object have been resolved
+	 * @param domainObject
+	 * @return true if resolved
+	 */
+	public boolean isResolved(Object domainObject) {
+		return this.resolved.contains(domainObject);
+	}
+
+	public int getFetchBudget() {
+		return fetchBudget;
+	}
+
+	public void setFetchBudget(int fetchBudget) {
+		if (fetchBudget <= 0)
+			throw new IllegalArgumentException("fetch budget must be greater than 0");
+		this.fetchBudget = fetchBudget;
+	}
+
+	/**
+	 * answer the number of objects resolved so far
+	 * @return the number of resolved objects
+	 */
+	public long getObjectsResolved() {
+		return objectsResolved;
+	}
+
+	/**
+	 * answer the number of batches (round-trips) needed to resolve objects so far
+	 * @return the number of batches
+	 */
+	public long getBatches() {
+		return batches;
+	}
+
+	/**
+	 * answer the domain objects directly referenced by resolved objects of the given level
+	 */
+	private List<Object> nextLevel(List<Object> level, Set<Object> visited) {
+		List<Object> next = new ArrayList<Object>();
+		for (Object obj : level) {
+			if (obj == null || !this.resolved.contains(obj))
+				continue;
+			ModelComparator comparator = ModelComparators.comparatorFor(obj.getClass());
+			if (comparator == null)
+				continue;
+			for (int i = 0; i < comparator.getFieldCount(); i++) {
+				if (comparator.isSimpleField(i))
+					continue;
+				Object value = comparator.getFieldValue(i, obj);
+				if (value instanceof List<?>) {
+					for (Object elem : (List<?>) value)
+						addReference(elem, visited, next);
+				} else
+					addReference(value, visited, next);
+			}
+		}
+		return next;
+	}
+
+	private static void addReference(Object obj, Set<Object> visited, List<Object> next) {
+		if (obj != null && ModelComparators.comparatorFor(obj.getClass()) != null && visited.add(obj))
+			next.add(obj);
+	}
+}
@@ -0,0 +1,294 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.query.JcQuery;
+import iot.jcypher.query.JcQueryResult;
+import iot.jcypher.query.result.JcError;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads a Cypher dump from a pool of worker threads.
+ * <br/>Relations of a dump depend on the nodes they connect, nodes depend on nothing. So the dump
+ * is read twice: the first pass creates all nodes in parallel batches, the second pass
+ * creates the relations in parallel batches, matching their nodes by id.
+ * Relations are partitioned by their start node (a node's outgoing relations are batched together),
+ * which reduces lock contention among concurrent batches. Batches which fail (e.g. because
+ * concurrent transactions deadlocked on shared nodes) are retried.
+ * <br/>Every batch is executed via one of the shared instances of a DBAccessPool.
+ * <br/>Note: A dump given as a Reader can be read only once, it is loaded serially.
+ * A parallel load can not be resumed from an offset (batches complete out of order),
+ * if a start offset is set, the dump is loaded serially as well.
+ */
+public class ParallelCypherDumpLoader extends CypherDumpLoader {
+
+	private DBAccessPool dbAccessPool;
+	private int threads;
+	private int retries;
+	private long statementsLoaded;
+
+	/**
+	 * @param dbAccessPool the pool of connections to the database to load the dump into
+	 */
+	public ParallelCypherDumpLoader(DBAccessPool dbAccessPool) {
+		super(dbAccessPool.getShared());
+		this.dbAccessPool = dbAccessPool;
+		this.threads = Runtime.getRuntime().availableProcessors();
+		this.retries = 2;
+		this.statementsLoaded = -1;
+	}
+
+	/**
+	 * load a dump from the classpath in parallel
+	 * @param resource the name of the resource, e.g. "/load/generic_people_domain.txt"
+	 * @return a list of errors, which is empty if loading was successful
+	 */
+	@Override
+	public List<JcError> load(final String resource) {
+		if (CypherDumpLoader.class.getResource(resource) == null)
+			return Collections.singletonList(new JcError("ParallelCypherDumpLoader",
+					"resource not found: " + resource, null));
+		return load(new IDumpSource() {
+			@Override
+			public InputStream open() throws IOException {
+				return CypherDumpLoader.class.getResourceAsStream(resource);
+			}
+		});
+	}
+
+	/**
+	 * load a dump serially, a Reader can be read only once
+	 * @param reader
+	 * @return a list of errors, which is empty if loading was successful
+	 */
+	@Override
+	public List<JcError> load(Reader reader) {
+		this.statementsLoaded = -1;
+		return super.load(reader);
+	}
+
+	/**
+	 * load a dump file in parallel
+	 * @param file
+	 * @return a list of errors, which is empty if loading was successful
+	 */
+	public List<JcError> load(final File file) {
+		return load(new IDumpSource() {
+			@Override
+			public InputStream open() throws IOException {
+				return new FileInputStream(file);
+			}
+		});
+	}
+
+	/**
+	 * answer the number of statements loaded so far
+	 * (or in case of a serial load, the offset to resume from, see CypherDumpLoader)
+	 * @return the number of statements loaded
+	 */
+	@Override
+	public long getStatementsLoaded() {
+		return this.statementsLoaded >= 0 ? this.statementsLoaded : super.getStatementsLoaded();
+	}
+
+	/**
+	 * @param threads the number of worker threads, defaults to the number of available processors
+	 */
+	public void setThreads(int threads) {
+		if (threads <= 0)
+			throw new IllegalArgumentException("number of threads must be greater than 0");
+		this.threads = threads;
+	}
+
+	/**
+	 * @param retries the number of times a failed batch is retried, defaults to 2
+	 */
+	public void setRetries(int retries) {
+		if (retries < 0)
+			throw new IllegalArgumentException("number of retries must not be negative");
+		this.retries = retries;
+	}
+
+	private List<JcError> load(IDumpSource source) {
+		if (getStartOffset() > 0) {
+			// resume serially
+			Reader reader = null;
+			try {
+				reader = new InputStreamReader(source.open(), StandardCharsets.UTF_8);
+				return load(reader);
+			} catch (IOException e) {
+				return Collections.singletonList(
+						new JcError("ParallelCypherDumpLoader", e.getMessage(), e.getClass().getName()));
+			} finally {
+				close(reader);
+			}
+		}
+		this.statementsLoaded = 0;
+		List<JcError> errors = prepareNodeIds();
+		if (!errors.isEmpty())
+			return errors;
+		ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+		try {
+			errors = loadPass(source, false, executor);
+			if (errors.isEmpty())
+				errors = loadPass(source, true, executor);
+			if (errors.isEmpty())
+				errors = finish();
+			return errors;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * read the dump and execute either its node statements (including updates of nodes and
+	 * unsupported statements, which are reported as errors) or its relation statements in parallel batches
+	 */
+	private List<JcError> loadPass(IDumpSource source, boolean relations, ExecutorService executor) {
+		List<JcError> errors = new ArrayList<JcError>();
+		CompletionService<Executed> completions = new ExecutorCompletionService<Executed>(executor);
+		int inFlight = 0;
+		Reader reader = null;
+		try {
+			reader = new InputStreamReader(source.open(), StandardCharsets.UTF_8);
+			StatementReader statements = new StatementReader(reader);
+			// one open batch per partition
+			Batch[] batches = new Batch[relations ? this.threads : 1];
+			for (int i = 0; i < batches.length; i++)
+				batches[i] = new Batch();
+			long index = 0;
+			String statement;
+			while (errors.isEmpty() && (statement = statements.next()) != null) {
+				long statementIndex = index++;
+				if (isRelationStatement(statement) != relations)
+					continue;
+				// an out of range variable (-1) is reported by the batch
+				int partition = relations ? (int) Math.floorMod(startVariableOf(statement), (long) batches.length) : 0;
+				Batch batch = batches[partition];
+				errors.addAll(batch.add(statement, statementIndex, this));
+				if (!errors.isEmpty() || batch.size() < getBatchSize())
+					continue;
+				for (; inFlight >= this.threads * 2; inFlight--)
+					errors.addAll(completed(completions));
+				if (!errors.isEmpty())
+					break;
+				submit(batch, completions);
+				inFlight++;
+				batches[partition] = new Batch();
+			}
+			for (Batch batch : batches) {
+				if (errors.isEmpty() && batch.size() > 0) {
+					submit(batch, completions);
+					inFlight++;
+				}
+			}
+		} catch (IOException e) {
+			errors.add(new JcError("ParallelCypherDumpLoader", e.getMessage(), e.getClass().getName()));
+		} finally {
+			close(reader);
+			// wait for the batches in flight, also in case of errors
+			for (; inFlight > 0; inFlight--)
+				errors.addAll(completed(completions));
+		}
+		return errors;
+	}
+
+	private void submit(final Batch batch, CompletionService<Executed> completions) {
+		// queries are built here, the mapping of variables to node ids is only accessed by this thread
+		final JcQuery query = batch.toQuery(this);
+		completions.submit(new Callable<Executed>() {
+			@Override
+			public Executed call() throws Exception {
+				JcQueryResult result = null;
+				for (int attempt = 0; attempt <= retries; attempt++) {
+					result = dbAccessPool.getShared().execute(query);
+					if (!result.hasErrors())
+						break;
+				}
+				return new Executed(batch, result);
+			}
+		});
+	}
+
+	/**
+	 * wait for the next executed batch and record its result
+	 */
+	private List<JcError> completed(CompletionService<Executed> completions) {
+		try {
+			Executed executed = completions.take().get();
+			List<JcError> errors = batchExecuted(executed.batch, executed.result);
+			if (errors.isEmpty()) {
+				this.statementsLoaded += executed.batch.size();
+				if (getProgressListener() != null)
+					getProgressListener().batchCommitted(this.statementsLoaded);
+			}
+			return errors;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			return Collections.singletonList(
+					new JcError("ParallelCypherDumpLoader", cause.getMessage(), cause.getClass().getName()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Collections.singletonList(
+					new JcError("ParallelCypherDumpLoader", "interrupted", e.getClass().getName()));
+		}
+	}
+
+	private static void close(Reader reader) {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/*********************************************/
+	/**
+	 * opens the dump, once per pass
+	 */
+	private interface IDumpSource {
+		InputStream open() throws IOException;
+	}
+
+	/*********************************************/
+	private static class Executed {
+		private Batch batch;
+		private JcQueryResult result;
+
+		private Executed(Batch batch, JcQueryResult result) {
+			super();
+			this.batch = batch;
+			this.result = result;
+		}
+	}
+}
@@ -0,0 +1,366 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.database.IDBAccess;
+import iot.jcypher.domain.DomainAccessFactory;
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.samples.domain.people.model.Address;
+import iot.jcypher.samples.domain.people.model.Area;
+import iot.jcypher.samples.domain.people.model.Person;
+import iot.jcypher.samples.domain.people.model.PointOfContact;
+import iot.jcypher.samples.domain.people.model.Subject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores a population from a pool of worker threads.
+ * <br/>The population is partitioned into independent subgraphs, i.e. families
+ * (persons linked via mother / father or sharing an address) and companies.
+ * The only objects shared among subgraphs are Areas. They are stored once (see SharedAreas)
+ * and resolved by id in every worker. If no SharedAreas are given, the Areas referenced
+ * by the subgraphs are collected while storing.
+ * <br/>Every worker stores through an IDomainAccess of its own. For remote access a worker borrows
+ * an IDBAccess from the DBAccessPool for exclusive use, if the pool is exhausted it uses one of the
+ * pool's shared instances (see acquireDBAccess()). Borrowed instances are returned when the store is done.
+ */
+public class ParallelStore {
+
+	private int threads;
+	private int unitSize;
+	private int chunksPerDomainAccess;
+	private SharedAreas sharedAreas;
+	private BulkStore chunkStore;
+
+	public ParallelStore() {
+		super();
+		this.threads = Runtime.getRuntime().availableProcessors();
+		this.unitSize = 500;
+		// an IDomainAccess keeps track of every object it has stored,
+		// so workers replace theirs from time to time
+		this.chunksPerDomainAccess = 16;
+		this.chunkStore = new BulkStore();
+	}
+
+	/**
+	 * partition the given root objects into independent subgraphs and store them in parallel
+	 * @param domainObjects
+	 * @return a BulkStoreResult, chunk indices refer to the units of work
+	 */
+	public BulkStoreResult store(List<?> domainObjects) {
+		List<List<Object>> units = new ArrayList<List<Object>>();
+		List<Object> unit = new ArrayList<Object>();
+		for (List<Object> partition : partition(domainObjects)) {
+			unit.addAll(partition);
+			if (unit.size() >= this.unitSize) {
+				units.add(unit);
+				unit = new ArrayList<Object>();
+			}
+		}
+		if (!unit.isEmpty())
+			units.add(unit);
+		return store(units.iterator());
+	}
+
+	/**
+	 * store chunks of root objects in parallel as they are produced by the given iterator
+	 * (e.g. a PopulationStream). The chunks must be independent of each other,
+	 * except for shared Areas. At most twice as many chunks as there are threads are held at a time.
+	 * @param chunks
+	 * @return a BulkStoreResult
+	 */
+	public BulkStoreResult store(Iterator<? extends List<?>> chunks) {
+		final BulkStoreResult result = new BulkStoreResult();
+		final SharedAreas areas = this.sharedAreas != null ? this.sharedAreas : new SharedAreas();
+		// Areas are stored by this thread, through an IDomainAccess of their own
+		IDomainAccess areasAccess = createDomainAccess();
+		final ThreadLocal<Worker> workers = new ThreadLocal<Worker>();
+		final List<Worker> allWorkers = Collections.synchronizedList(new ArrayList<Worker>());
+		final Semaphore inFlight = new Semaphore(this.threads * 2);
+		ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+		try {
+			int chunkIndex = 0;
+			while (chunks.hasNext()) {
+				final List<?> chunk = chunks.next();
+				final int index = chunkIndex++;
+				List<JcError> areaErrors = areas.storeReferencedBy(chunk, areasAccess);
+				if (!areaErrors.isEmpty()) {
+					result.chunkFailed(index, areaErrors);
+					continue;
+				}
+				inFlight.acquireUninterruptibly();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							Worker worker = workers.get();
+							if (worker == null) {
+								worker = new Worker(areas);
+								workers.set(worker);
+								allWorkers.add(worker);
+							}
+							List<JcError> errors = worker.store(chunk);
+							if (errors.isEmpty())
+								result.chunkStored(chunk.size());
+							else
+								result.chunkFailed(index, errors);
+						} catch (RuntimeException e) {
+							result.chunkFailed(index, Collections.singletonList(
+									new JcError("ParallelStore", e.getMessage(), e.getClass().getName())));
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (allWorkers) {
+				for (Worker worker : allWorkers)
+					worker.close();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * answer the independent subgraphs of the given root objects.
+	 * Root objects are in the same subgraph, if they are linked via mother / father
+	 * or if they share a point of contact. Areas are not taken into account,
+	 * every other root object (e.g. an Area) is a subgraph of its own.
+	 * @param domainObjects
+	 * @return a list of subgraphs, each represented by a list of root objects
+	 */
+	public static List<List<Object>> partition(List<?> domainObjects) {
+		Map<Object, Integer> indices = new IdentityHashMap<Object, Integer>();
+		List<Integer> parents = new ArrayList<Integer>();
+		List<Subject> toVisit = new ArrayList<Subject>();
+		for (Object obj : domainObjects) {
+			indexOf(obj, indices, parents);
+			if (obj instanceof Subject)
+				toVisit.add((Subject) obj);
+		}
+		Map<Object, Object> visited = new IdentityHashMap<Object, Object>();
+		while (!toVisit.isEmpty()) {
+			Subject subject = toVisit.remove(toVisit.size() - 1);
+			if (visited.put(subject, subject) != null)
+				continue;
+			int idx = indexOf(subject, indices, parents);
+			for (PointOfContact poc : subject.getPointsOfContact())
+				union(idx, indexOf(poc, indices, parents), parents);
+			if (subject instanceof Person) {
+				Person person = (Person) subject;
+				if (person.getMother() != null) {
+					union(idx, indexOf(person.getMother(), indices, parents), parents);
+					toVisit.add(person.getMother());
+				}
+				if (person.getFather() != null) {
+					union(idx, indexOf(person.getFather(), indices, parents), parents);
+					toVisit.add(person.getFather());
+				}
+			}
+		}
+		Map<Integer, List<Object>> partitions = new LinkedHashMap<Integer, List<Object>>();
+		for (Object obj : domainObjects) {
+			Integer root = Integer.valueOf(find(indices.get(obj).intValue(), parents));
+			List<Object> partition = partitions.get(root);
+			if (partition == null) {
+				partition = new ArrayList<Object>();
+				partitions.put(root, partition);
+			}
+			partition.add(obj);
+		}
+		return new ArrayList<List<Object>>(partitions.values());
+	}
+
+	private static int indexOf(Object obj, Map<Object, Integer> indices, List<Integer> parents) {
+		Integer idx = indices.get(obj);
+		if (idx == null) {
+			idx = Integer.valueOf(parents.size());
+			indices.put(obj, idx);
+			parents.add(idx);
+		}
+		return idx.intValue();
+	}
+
+	private static int find(int idx, List<Integer> parents) {
+		int root = idx;
+		while (parents.get(root).intValue() != root)
+			root = parents.get(root).intValue();
+		// path compression
+		int i = idx;
+		while (i != root) {
+			int next = parents.get(i).intValue();
+			parents.set(i, Integer.valueOf(root));
+			i = next;
+		}
+		return root;
+	}
+
+	private static void union(int idx1, int idx2, List<Integer> parents) {
+		int root1 = find(idx1, parents);
+		int root2 = find(idx2, parents);
+		if (root1 != root2)
+			parents.set(root2, Integer.valueOf(root1));
+	}
+
+	/**
+	 * answer a new IDomainAccess to store the Areas.
+	 * @return a new IDomainAccess
+	 */
+	protected IDomainAccess createDomainAccess() {
+		return Config.createDomainAccess();
+	}
+
+	/**
+	 * answer the IDBAccess for a new worker.
+	 * For remote access an instance is borrowed from the DBAccessPool,
+	 * if the pool is exhausted one of the pool's shared instances is answered.
+	 * @return an IDBAccess
+	 */
+	protected IDBAccess acquireDBAccess() {
+		if (!Config.isPooled())
+			return Config.getDBAccess();
+		DBAccessPool pool = Config.getDBAccessPool();
+		try {
+			return pool.borrow(0);
+		} catch (NoSuchElementException e) {
+			return pool.getShared();
+		}
+	}
+
+	/**
+	 * called when a worker is done with an IDBAccess answered by acquireDBAccess()
+	 * @param dbAccess
+	 */
+	protected void releaseDBAccess(IDBAccess dbAccess) {
+		if (Config.isPooled() && Config.getDBAccessPool().isBorrowed(dbAccess))
+			Config.getDBAccessPool().release(dbAccess);
+	}
+
+	/**
+	 * answer a new IDomainAccess for a worker,
+	 * it is used by the worker's thread only.
+	 * @param dbAccess the IDBAccess of the worker
+	 * @return a new IDomainAccess
+	 */
+	protected IDomainAccess createDomainAccess(IDBAccess dbAccess) {
+		return DomainAccessFactory.createDomainAccess(dbAccess, Config.domainName);
+	}
+
+	/**
+	 * @param threads the number of worker threads, defaults to the number of available processors
+	 */
+	public void setThreads(int threads) {
+		if (threads <= 0)
+			throw new IllegalArgumentException("number of threads must be greater than 0");
+		this.threads = threads;
+	}
+
+	/**
+	 * @param unitSize the minimum number of root objects stored as one unit of work
+	 * when storing a list (subgraphs are never split)
+	 */
+	public void setUnitSize(int unitSize) {
+		if (unitSize <= 0)
+			throw new IllegalArgumentException("unit size must be greater than 0");
+		this.unitSize = unitSize;
+	}
+
+	/**
+	 * @param chunksPerDomainAccess the number of chunks a worker stores through one IDomainAccess,
+	 * before it is replaced by a fresh one; 0 means never replace it, the default is 16.
+	 */
+	public void setChunksPerDomainAccess(int chunksPerDomainAccess) {
+		if (chunksPerDomainAccess < 0)
+			throw new IllegalArgumentException("chunks per domain access must not be negative");
+		this.chunksPerDomainAccess = chunksPerDomainAccess;
+	}
+
+	/**
+	 * @param transactional if true (the default), every unit of work is stored in a transaction of its own
+	 */
+	public void setTransactional(boolean transactional) {
+		this.chunkStore.setTransactional(transactional);
+	}
+
+	/**
+	 * @param sharedAreas Areas referenced by many subgraphs, they are stored once
+	 * and resolved by id in every worker.
+	 * Areas referenced by subgraphs, which are not yet shared, are added to them.
+	 */
+	public void setSharedAreas(SharedAreas sharedAreas) {
+		this.sharedAreas = sharedAreas;
+	}
+
+	/*********************************************/
+	private class Worker {
+		private IDBAccess dbAccess;
+		private IDomainAccess domainAccess;
+		private SharedAreas areas;
+		private SharedAreas.Binding binding;
+		private int chunks;
+
+		private Worker(SharedAreas areas) {
+			super();
+			this.dbAccess = acquireDBAccess();
+			this.areas = areas;
+		}
+
+		private List<JcError> store(List<?> chunk) {
+			if (this.domainAccess == null || (chunksPerDomainAccess > 0 &&
+					this.chunks >= chunksPerDomainAccess)) {
+				this.domainAccess = createDomainAccess(this.dbAccess);
+				this.binding = this.areas.bindTo(this.domainAccess);
+				this.chunks = 0;
+			}
+			this.chunks++;
+			Map<Address, Area> originals = this.binding.rebind(chunk);
+			try {
+				return chunkStore.storeChunk(this.domainAccess, this.areas.withoutAreas(chunk));
+			} finally {
+				SharedAreas.restore(originals);
+			}
+		}
+
+		private void close() {
+			this.domainAccess = null;
+			this.binding = null;
+			if (this.dbAccess != null) {
+				releaseDBAccess(this.dbAccess);
+				this.dbAccess = null;
+			}
+		}
+	}
+}
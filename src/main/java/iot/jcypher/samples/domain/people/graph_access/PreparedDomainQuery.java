@@ -0,0 +1,116 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domainquery.CountQueryResult;
+import iot.jcypher.domainquery.DomainQuery;
+import iot.jcypher.domainquery.DomainQueryResult;
+import iot.jcypher.domainquery.api.DomainObjectMatch;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A domain query built from a DomainQueryTemplate,
+ * to be executed repeatedly with different parameter values.
+ * <br/>Every execution answers a PreparedQueryResult, which holds the results of the registered matches.
+ * A DomainQueryResult of the underlying DomainQuery would be overwritten by the next execution.
+ * <br/>A prepared query is not thread-safe, it must only be used by the thread which prepared it.
+ */
+public class PreparedDomainQuery {
+
+	private DomainQuery query;
+	private Map<String, DomainObjectMatch<?>> matches;
+	private Thread owner;
+
+	PreparedDomainQuery(DomainQuery query, Map<String, DomainObjectMatch<?>> matches, Thread owner) {
+		super();
+		this.query = query;
+		this.matches = matches;
+		this.owner = owner;
+	}
+
+	/**
+	 * bind a value to a parameter of the query
+	 * @param name the name of the parameter
+	 * @param value
+	 * @return this PreparedDomainQuery
+	 */
+	public PreparedDomainQuery setParameter(String name, Object value) {
+		checkOwner();
+		if (!this.query.getParameterNames().contains(name))
+			throw new IllegalArgumentException("unknown query parameter: " + name);
+		this.query.parameter(name).setValue(value);
+		return this;
+	}
+
+	/**
+	 * execute the query with the currently bound parameter values,
+	 * retrieve the results of all registered matches
+	 * @return a PreparedQueryResult
+	 */
+	public PreparedQueryResult execute() {
+		checkOwner();
+		DomainQueryResult result = this.query.execute();
+		Map<DomainObjectMatch<?>, Object> results = new IdentityHashMap<DomainObjectMatch<?>, Object>();
+		for (DomainObjectMatch<?> match : this.matches.values())
+			results.put(match, result.resultOf(match));
+		return new PreparedQueryResult(results, false);
+	}
+
+	/**
+	 * execute the query with the currently bound parameter values,
+	 * retrieving the number of objects matched by the registered matches only
+	 * @return a PreparedQueryResult
+	 */
+	public PreparedQueryResult executeCount() {
+		checkOwner();
+		CountQueryResult result = this.query.executeCount();
+		Map<DomainObjectMatch<?>, Object> results = new IdentityHashMap<DomainObjectMatch<?>, Object>();
+		for (DomainObjectMatch<?> match : this.matches.values())
+			results.put(match, Long.valueOf(result.countOf(match)));
+		return new PreparedQueryResult(results, true);
+	}
+
+	/**
+	 * answer a DomainObjectMatch registered by the query shape, to retrieve results
+	 * @param name the name under which the match was registered
+	 * @param type the type of the matched domain objects
+	 * @return a DomainObjectMatch
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> DomainObjectMatch<T> getMatch(String name, Class<T> type) {
+		DomainObjectMatch<?> match = this.matches.get(name);
+		if (match == null)
+			throw new IllegalArgumentException("no match registered as: " + name);
+		return (DomainObjectMatch<T>) match;
+	}
+
+	/**
+	 * answer the underlying DomainQuery.
+	 * <br/>Note: Results of the DomainQuery itself are only valid until the next execution
+	 * @return a DomainQuery
+	 */
+	public DomainQuery getQuery() {
+		return query;
+	}
+
+	private void checkOwner() {
+		if (Thread.currentThread() != this.owner)
+			throw new IllegalStateException("a prepared query must only be used by the thread which prepared it");
+	}
+}
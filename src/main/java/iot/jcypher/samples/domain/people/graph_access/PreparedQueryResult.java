@@ -0,0 +1,70 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domainquery.api.DomainObjectMatch;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of one execution of a PreparedDomainQuery.
+ * <br/>The results of all registered DomainObjectMatch(es) are retrieved when the query is executed,
+ * so they stay valid when the prepared query is executed again.
+ */
+public class PreparedQueryResult {
+
+	private Map<DomainObjectMatch<?>, Object> results;
+	private boolean count;
+
+	PreparedQueryResult(Map<DomainObjectMatch<?>, Object> results, boolean count) {
+		super();
+		this.results = results;
+		this.count = count;
+	}
+
+	/**
+	 * answer the domain objects matched by the given DomainObjectMatch
+	 * (the query must have been executed via PreparedDomainQuery.execute())
+	 * @param match a DomainObjectMatch registered by the query shape
+	 * @return a list of domain objects
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> resultOf(DomainObjectMatch<T> match) {
+		if (this.count)
+			throw new IllegalStateException("query was executed as count query");
+		return (List<T>) get(match);
+	}
+
+	/**
+	 * answer the number of domain objects matched by the given DomainObjectMatch
+	 * (the query must have been executed via PreparedDomainQuery.executeCount())
+	 * @param match a DomainObjectMatch registered by the query shape
+	 * @return the number of matching domain objects
+	 */
+	public long countOf(DomainObjectMatch<?> match) {
+		if (!this.count)
+			throw new IllegalStateException("query was not executed as count query");
+		return ((Long) get(match)).longValue();
+	}
+
+	private Object get(DomainObjectMatch<?> match) {
+		Object ret = this.results.get(match);
+		if (ret == null)
+			throw new IllegalArgumentException("match is not registered by the query shape");
+		return ret;
+	}
+}
@@ -0,0 +1,195 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domainquery.CountQueryResult;
+import iot.jcypher.domainquery.DomainQuery;
+import iot.jcypher.domainquery.DomainQueryResult;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Executes independent domain queries concurrently, so that the latency of a set of queries
+ * becomes the latency of the slowest query instead of the sum of all of them.
+ * <br/>Queries are dispatched on virtual threads, if the Java runtime provides them (Java 21+),
+ * otherwise on a pool of platform threads.
+ * At most maxConcurrency queries are executed at the same time,
+ * a query not completed within the timeout completes exceptionally with a TimeoutException.
+ * The timeout starts when the query starts to execute, not while it waits for one of the maxConcurrency slots.
+ * <br/>Note: An IDomainAccess is not thread-safe and a synchronized one serializes its queries.
+ * Queries to be executed concurrently must therefore be created by different IDomainAccess instances.
+ */
+public class QueryFanOut {
+
+	private ExecutorService executor;
+	private ScheduledExecutorService timer;
+	private Semaphore permits;
+	private long timeoutMillis;
+	private boolean virtualThreads;
+
+	/**
+	 * @param maxConcurrency the maximum number of queries executed at the same time
+	 * @param timeoutMillis the timeout per query in milliseconds (measured from the start of its execution),
+	 * 0 means no timeout
+	 */
+	public QueryFanOut(int maxConcurrency, long timeoutMillis) {
+		super();
+		if (maxConcurrency <= 0)
+			throw new IllegalArgumentException("max concurrency must be greater than 0");
+		this.permits = new Semaphore(maxConcurrency);
+		this.timeoutMillis = timeoutMillis;
+		this.executor = createVirtualThreadExecutor();
+		this.virtualThreads = this.executor != null;
+		if (this.executor == null)
+			this.executor = Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory("query-fan-out"));
+		this.timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("query-fan-out-timer"));
+	}
+
+	/**
+	 * execute a domain query asynchronously
+	 * @param query
+	 * @return a future which completes with the query result
+	 */
+	public CompletableFuture<DomainQueryResult> execute(final DomainQuery query) {
+		return submit(new Callable<DomainQueryResult>() {
+			@Override
+			public DomainQueryResult call() throws Exception {
+				return query.execute();
+			}
+		});
+	}
+
+	/**
+	 * execute a domain query asynchronously, retrieving the number of matching objects only
+	 * @param query
+	 * @return a future which completes with the count result
+	 */
+	public CompletableFuture<CountQueryResult> executeCount(final DomainQuery query) {
+		return submit(new Callable<CountQueryResult>() {
+			@Override
+			public CountQueryResult call() throws Exception {
+				return query.executeCount();
+			}
+		});
+	}
+
+	/**
+	 * answer true if queries are dispatched on virtual threads
+	 * @return true if virtual threads are used
+	 */
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * stop accepting queries, queries already dispatched are completed.
+	 */
+	public void shutdown() {
+		this.executor.shutdown();
+		this.timer.shutdown();
+	}
+
+	private <T> CompletableFuture<T> submit(final Callable<T> task) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final AtomicReference<Future<?>> running = new AtomicReference<Future<?>>();
+		running.set(this.executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					result.completeExceptionally(e);
+					return;
+				}
+				try {
+					if (result.isDone())
+						return;
+					// the query's time starts to run, when it has got its permit
+					ScheduledFuture<?> timeout = scheduleTimeout(result, running);
+					try {
+						result.complete(task.call());
+					} finally {
+						if (timeout != null)
+							timeout.cancel(false);
+					}
+				} catch (Throwable e) {
+					result.completeExceptionally(e);
+				} finally {
+					permits.release();
+				}
+			}
+		}));
+		return result;
+	}
+
+	private ScheduledFuture<?> scheduleTimeout(final CompletableFuture<?> result,
+			final AtomicReference<Future<?>> running) {
+		if (this.timeoutMillis <= 0)
+			return null;
+		return this.timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (result.completeExceptionally(new TimeoutException(
+						"domain query not completed within " + timeoutMillis + " ms"))) {
+					Future<?> future = running.get();
+					if (future != null)
+						future.cancel(true);
+				}
+			}
+		}, this.timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			// no virtual threads before Java 21
+			return null;
+		}
+	}
+
+	/*********************************************/
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private String name;
+		private int count;
+
+		private DaemonThreadFactory(String name) {
+			super();
+			this.name = name;
+		}
+
+		@Override
+		public synchronized Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, this.name + "-" + (++this.count));
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
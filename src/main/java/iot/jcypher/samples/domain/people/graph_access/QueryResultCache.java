@@ -0,0 +1,388 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domainquery.CountQueryResult;
+import iot.jcypher.domainquery.DomainQuery;
+import iot.jcypher.domainquery.DomainQueryResult;
+import iot.jcypher.domainquery.InternalAccess;
+import iot.jcypher.domainquery.api.DomainObjectMatch;
+import iot.jcypher.domainquery.ast.Parameter;
+import iot.jcypher.domainquery.internal.QueryExecutor;
+import iot.jcypher.domainquery.internal.RecordedQuery;
+import iot.jcypher.domainquery.internal.RecordedQuery.DOMatchRef;
+import iot.jcypher.domainquery.internal.RecordedQuery.Invocation;
+import iot.jcypher.domainquery.internal.RecordedQuery.Literal;
+import iot.jcypher.domainquery.internal.RecordedQuery.Reference;
+import iot.jcypher.domainquery.internal.RecordedQuery.Statement;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.samples.domain.people.util.DomainObjectWalker;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Caches the results of domain queries.
+ * <br/>Queries are keyed by a canonical form of the query as recorded by JCypher
+ * (matches, WHERE / TRAVERSE / SELECT / ORDER ... clauses including literals),
+ * the values of the query parameters and the identities of the objects a query starts from (createMatchFor(..)).
+ * Two queries built the same way with the same parameter values share one result.
+ * <br/>An entry expires after the time to live,
+ * the least recently used entry is evicted, when the maximum number of entries is reached.
+ * Storing through an IDomainAccess created by createDomainAccess(..) invalidates all entries
+ * of queries which name a type (or a sub- or supertype) of one of the stored objects.
+ * <br/>Note: Cached results are shared among queries, they are meant for reading.
+ */
+public class QueryResultCache {
+
+	private static final List<String> TYPE_NAMING_METHODS =
+			Arrays.asList("createMatch", "createMatchFor", "TO");
+
+	private long ttlMillis;
+	private LinkedHashMap<QueryKey, CachedQueryResult.Entry> entries;
+	private long hits;
+	private long misses;
+	private long invalidations;
+	// incremented on every invalidation, results of queries executed meanwhile are not cached
+	private long generation;
+	// per query (i.e. its executor) the entry created by its last execution,
+	// the entry must retrieve its remaining results before the query is executed again
+	private Map<QueryExecutor, WeakReference<CachedQueryResult.Entry>> lastExecutions;
+
+	/**
+	 * @param maxEntries the maximum number of cached query results
+	 * @param ttlMillis the time to live of a cached query result in milliseconds, 0 means unlimited
+	 */
+	public QueryResultCache(final int maxEntries, long ttlMillis) {
+		super();
+		if (maxEntries <= 0)
+			throw new IllegalArgumentException("max entries must be greater than 0");
+		this.ttlMillis = ttlMillis;
+		this.lastExecutions = new WeakHashMap<QueryExecutor, WeakReference<CachedQueryResult.Entry>>();
+		// access order, i.e. LRU
+		this.entries = new LinkedHashMap<QueryKey, CachedQueryResult.Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<QueryKey, CachedQueryResult.Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * answer a new IDomainAccess which invalidates the cached results
+	 * of queries depending on the types of stored objects.
+	 * @param domainAccess the IDomainAccess to wrap
+	 * @return an IDomainAccess
+	 */
+	public IDomainAccess createDomainAccess(IDomainAccess domainAccess) {
+		return new InvalidatingDomainAccess(domainAccess);
+	}
+
+	/**
+	 * execute a domain query, or answer the result of an earlier execution of an equal query
+	 * @param query
+	 * @return a CachedQueryResult
+	 */
+	public CachedQueryResult execute(DomainQuery query) {
+		return execute(query, false);
+	}
+
+	/**
+	 * execute a domain query retrieving the number of matching objects only,
+	 * or answer the result of an earlier execution of an equal count query
+	 * @param query
+	 * @return a CachedQueryResult
+	 */
+	public CachedQueryResult executeCount(DomainQuery query) {
+		return execute(query, true);
+	}
+
+	/**
+	 * invalidate the cached results of all queries depending on the given types
+	 * @param types
+	 */
+	public synchronized void invalidate(List<Class<?>> types) {
+		Iterator<CachedQueryResult.Entry> it = this.entries.values().iterator();
+		while (it.hasNext()) {
+			CachedQueryResult.Entry entry = it.next();
+			for (Class<?> type : types) {
+				if (entry.dependsOn(type)) {
+					it.remove();
+					this.invalidations++;
+					break;
+				}
+			}
+		}
+		this.generation++;
+	}
+
+	/**
+	 * invalidate all cached results
+	 */
+	public synchronized void invalidateAll() {
+		this.invalidations += this.entries.size();
+		this.entries.clear();
+		this.generation++;
+	}
+
+	public synchronized int getSize() {
+		return this.entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "QueryResultCache [size=" + this.entries.size() + ", hits=" + this.hits +
+				", misses=" + this.misses + ", invalidations=" + this.invalidations + "]";
+	}
+
+	private CachedQueryResult execute(DomainQuery query, boolean count) {
+		QueryExecutor executor = InternalAccess.getQueryExecutor(query);
+		List<DomainObjectMatch<?>> matches =
+				new ArrayList<DomainObjectMatch<?>>(executor.getDomainObjectMatches());
+		RecordedQuery recordedQuery = executor.getRecordedQuery();
+		QueryKey key = null;
+		long gen = 0;
+		if (recordedQuery != null) {
+			key = createKey(recordedQuery, count);
+			synchronized (this) {
+				CachedQueryResult.Entry entry = this.entries.get(key);
+				if (entry != null && !entry.isExpired(System.currentTimeMillis())) {
+					this.hits++;
+					return new CachedQueryResult(entry, matches, true);
+				}
+				this.misses++;
+				gen = this.generation;
+			}
+		}
+		CachedQueryResult.Entry previous = null;
+		synchronized (this) {
+			WeakReference<CachedQueryResult.Entry> ref = this.lastExecutions.get(executor);
+			if (ref != null)
+				previous = ref.get();
+		}
+		if (previous != null)
+			previous.detach();
+		DomainQueryResult result = null;
+		CountQueryResult countResult = null;
+		if (count)
+			countResult = query.executeCount();
+		else
+			result = query.execute();
+		long expiresAt = this.ttlMillis > 0 ? System.currentTimeMillis() + this.ttlMillis : Long.MAX_VALUE;
+		List<Class<?>> types = recordedQuery != null ?
+				collectTypes(recordedQuery.getStatements(), new ArrayList<Class<?>>()) :
+				Collections.<Class<?>>emptyList();
+		CachedQueryResult.Entry entry = new CachedQueryResult.Entry(matches, result, countResult, types, expiresAt);
+		synchronized (this) {
+			this.lastExecutions.put(executor, new WeakReference<CachedQueryResult.Entry>(entry));
+			if (key != null && gen == this.generation)
+				this.entries.put(key, entry);
+		}
+		return new CachedQueryResult(entry, matches, false);
+	}
+
+	/**
+	 * answer the canonical form of the query as key,
+	 * the query must not be modified after having been executed.
+	 */
+	private static QueryKey createKey(RecordedQuery recordedQuery, boolean count) {
+		StringBuilder sb = new StringBuilder();
+		List<Object> references = new ArrayList<Object>();
+		sb.append(count ? "count:" : "query:");
+		for (Statement statement : recordedQuery.getStatements()) {
+			appendStatement(statement, sb, references);
+			sb.append(';');
+		}
+		return new QueryKey(sb.toString(), references.toArray());
+	}
+
+	private static void appendStatement(Statement statement, StringBuilder sb, List<Object> references) {
+		if (statement instanceof Invocation) {
+			Invocation invocation = (Invocation) statement;
+			if (invocation.getReturnObjectRef() != null)
+				sb.append(invocation.getReturnObjectRef()).append('=');
+			sb.append(invocation.getOnObjectRef()).append('.').append(invocation.getMethod()).append('(');
+			List<Statement> params = invocation.getParams();
+			if (params != null) {
+				for (int i = 0; i < params.size(); i++) {
+					if (i > 0)
+						sb.append(',');
+					appendStatement(params.get(i), sb, references);
+				}
+			}
+			sb.append(')');
+		} else if (statement instanceof Literal) {
+			Object value = ((Literal) statement).getRawValue();
+			if (value instanceof Parameter) {
+				Parameter param = (Parameter) value;
+				sb.append('$').append(param.getName()).append(':');
+				value = param.getValue();
+			}
+			appendLiteral(value, sb);
+		} else if (statement instanceof Reference) {
+			// objects are compared by identity
+			sb.append("ref#").append(references.size());
+			references.add(((Reference) statement).getValue());
+		} else if (statement instanceof DOMatchRef) {
+			sb.append(((DOMatchRef) statement).getRef());
+		} else
+			sb.append(String.valueOf(statement));
+	}
+
+	private static void appendLiteral(Object value, StringBuilder sb) {
+		if (value == null)
+			sb.append("null");
+		else if (value instanceof Class<?>)
+			sb.append("class:").append(((Class<?>) value).getName());
+		else if (value instanceof Object[])
+			sb.append(Arrays.deepToString((Object[]) value));
+		else
+			sb.append(value.getClass().getSimpleName()).append(":'").append(value).append('\'');
+	}
+
+	/**
+	 * collect the types named in the query (the recorded query contains them as class names)
+	 * and the types of objects the query starts from
+	 */
+	private static List<Class<?>> collectTypes(List<Statement> statements, List<Class<?>> types) {
+		for (Statement statement : statements) {
+			if (statement instanceof Invocation) {
+				Invocation invocation = (Invocation) statement;
+				List<Statement> params = invocation.getParams();
+				if (params == null)
+					continue;
+				if (TYPE_NAMING_METHODS.contains(invocation.getMethod())) {
+					for (Statement param : params) {
+						if (param instanceof Literal)
+							addType(((Literal) param).getRawValue(), types);
+					}
+				}
+				collectTypes(params, types);
+			} else if (statement instanceof Reference) {
+				Object value = ((Reference) statement).getValue();
+				if (value instanceof List<?>) {
+					for (Object obj : (List<?>) value)
+						addType(obj != null ? obj.getClass() : null, types);
+				} else
+					addType(value != null ? value.getClass() : null, types);
+			}
+		}
+		return types;
+	}
+
+	private static void addType(Object typeOrName, List<Class<?>> types) {
+		Class<?> type = null;
+		if (typeOrName instanceof Class<?>)
+			type = (Class<?>) typeOrName;
+		else if (typeOrName instanceof String) {
+			try {
+				type = Class.forName((String) typeOrName);
+			} catch (ClassNotFoundException e) {
+				// not a type name
+			}
+		}
+		if (type != null && !types.contains(type))
+			types.add(type);
+	}
+
+	/*********************************************/
+	private static class QueryKey {
+		private String canonical;
+		private Object[] references;
+		private int hashCode;
+
+		private QueryKey(String canonical, Object[] references) {
+			super();
+			this.canonical = canonical;
+			this.references = references;
+			int hash = canonical.hashCode();
+			for (Object ref : references)
+				hash = 31 * hash + System.identityHashCode(ref);
+			this.hashCode = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof QueryKey))
+				return false;
+			QueryKey other = (QueryKey) obj;
+			if (this.hashCode != other.hashCode || !this.canonical.equals(other.canonical)
+					|| this.references.length != other.references.length)
+				return false;
+			for (int i = 0; i < this.references.length; i++) {
+				if (this.references[i] != other.references[i])
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/*********************************************/
+	private class InvalidatingDomainAccess extends DelegatingDomainAccess {
+
+		private InvalidatingDomainAccess(IDomainAccess delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public List<JcError> store(List<?> domainObjects) {
+			try {
+				return this.delegate.store(domainObjects);
+			} finally {
+				invalidate(DomainObjectWalker.collectTypes(domainObjects));
+			}
+		}
+
+		@Override
+		public List<JcError> store(Object domainObject) {
+			try {
+				return this.delegate.store(domainObject);
+			} finally {
+				invalidate(DomainObjectWalker.collectTypes(Arrays.asList(domainObject)));
+			}
+		}
+	}
+}
@@ -0,0 +1,416 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.database.DBType;
+import iot.jcypher.database.IDBAccess;
+import iot.jcypher.domain.DomainAccessFactory;
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.query.JcQuery;
+import iot.jcypher.query.JcQueryResult;
+import iot.jcypher.query.api.APIObject;
+import iot.jcypher.query.api.APIObjectAccess;
+import iot.jcypher.query.api.IClause;
+import iot.jcypher.query.ast.ASTNode;
+import iot.jcypher.query.ast.ClauseType;
+import iot.jcypher.query.ast.nativ.NativeCypherExpression;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.transaction.ITransaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An IDBAccess which routes writes to a primary database and spreads reads over a set of replicas.
+ * <br/>A query is routed to the primary, if it contains an updating clause, if a transaction is open
+ * on the primary (in the current thread) or if the current thread is pinned to the primary.
+ * Clauses are classified by their JCypher clause type. Native Cypher clauses are scanned for updating
+ * keywords outside of string literals; procedure calls are routed to the primary,
+ * except for calls of well known read-only procedures.
+ * IDomainAccess instances created by this RoutingDBAccess pin the thread to the primary
+ * while storing, so that the reads performed during store see the primary's state.
+ * <br/>Reads go to the replica with the least outstanding requests.
+ * If a replica fails (with an exception or with a general, i.e. not query related, error),
+ * the read is retried on the next replica and finally on the primary;
+ * the failed replica is not used again for a while.
+ * <br/>Note: Replication itself is up to the database cluster, reads may therefore see stale data.
+ * For running without a cluster see createForSingleDatabase(..).
+ */
+public class RoutingDBAccess implements IDBAccess {
+
+	private static final Set<ClauseType> UPDATING_CLAUSES = EnumSet.of(
+			ClauseType.CREATE, ClauseType.CREATE_UNIQUE, ClauseType.MERGE,
+			ClauseType.SET, ClauseType.DELETE, ClauseType.DETACH_DELETE, ClauseType.REMOVE,
+			ClauseType.FOREACH, ClauseType.CREATE_INDEX, ClauseType.DROP_INDEX,
+			ClauseType.ON_CREATE_SET, ClauseType.ON_MATCH_SET,
+			ClauseType.ON_CREATE_DELETE, ClauseType.ON_MATCH_DELETE,
+			ClauseType.ON_CREATE_DETACH_DELETE, ClauseType.ON_MATCH_DETACH_DELETE,
+			ClauseType.ON_CREATE_REMOVE, ClauseType.ON_MATCH_REMOVE);
+	// string literals, quoted names and comments of native Cypher
+	private static final Pattern NATIVE_NOT_CODE =
+			Pattern.compile("'(?:[^'\\\\]|\\\\.)*'|\"(?:[^\"\\\\]|\\\\.)*\"|`[^`]*`|//[^\\n]*");
+	private static final Pattern NATIVE_UPDATING =
+			Pattern.compile("\\b(CREATE|MERGE|SET|DELETE|REMOVE|DROP|FOREACH|LOAD\\s+CSV)\\b",
+					Pattern.CASE_INSENSITIVE);
+	private static final Pattern NATIVE_CALL =
+			Pattern.compile("\\bCALL\\s+([\\w.]+)", Pattern.CASE_INSENSITIVE);
+	private static final List<String> READ_ONLY_PROCEDURES = Arrays.asList(
+			"db.labels", "db.relationshipTypes", "db.propertyKeys", "db.indexes", "db.constraints",
+			"db.schema", "dbms.components", "dbms.procedures", "dbms.functions");
+
+	private IDBAccess primary;
+	private List<Replica> replicas;
+	private ThreadLocal<int[]> primaryPins;
+	private long retryAfterMillis;
+	private AtomicLong primaryReads;
+	private AtomicLong failovers;
+	private AtomicInteger nextReplica;
+
+	/**
+	 * @param primary the IDBAccess to the primary database, which receives all writes
+	 * @param replicas the IDBAccess instances to the replicas, which receive reads
+	 */
+	public RoutingDBAccess(IDBAccess primary, List<IDBAccess> replicas) {
+		super();
+		this.primary = primary;
+		this.replicas = new ArrayList<Replica>(replicas.size());
+		for (IDBAccess replica : replicas)
+			this.replicas.add(new Replica(replica));
+		this.primaryPins = new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				return new int[1];
+			}
+		};
+		this.retryAfterMillis = 10000;
+		this.primaryReads = new AtomicLong();
+		this.failovers = new AtomicLong();
+		this.nextReplica = new AtomicInteger();
+	}
+
+	/**
+	 * create a RoutingDBAccess whose primary and replicas all access the given database,
+	 * e.g. to exercise the routing with a single embedded or in memory database.
+	 * As the replicas are the primary, reads never see stale data.
+	 * @param dbAccess the IDBAccess to the database
+	 * @param numberOfReplicas
+	 * @return a RoutingDBAccess
+	 */
+	public static RoutingDBAccess createForSingleDatabase(IDBAccess dbAccess, int numberOfReplicas) {
+		return new RoutingDBAccess(dbAccess, Collections.nCopies(numberOfReplicas, dbAccess));
+	}
+
+	/**
+	 * answer a new IDomainAccess working through this RoutingDBAccess.
+	 * <br/>Stores are routed to the primary, queries and loads are spread over the replicas.
+	 * @param domainName
+	 * @return a new IDomainAccess
+	 */
+	public IDomainAccess createDomainAccess(String domainName) {
+		return new RoutingDomainAccess(DomainAccessFactory.createDomainAccess(this, domainName));
+	}
+
+	@Override
+	public JcQueryResult execute(JcQuery query) {
+		if (isRoutedToPrimary(Collections.singletonList(query)))
+			return this.primary.execute(query);
+		List<JcQueryResult> results = read(Collections.singletonList(query));
+		return results.get(0);
+	}
+
+	@Override
+	public List<JcQueryResult> execute(List<JcQuery> queries) {
+		if (isRoutedToPrimary(queries))
+			return this.primary.execute(queries);
+		return read(queries);
+	}
+
+	@Override
+	public List<JcError> clearDatabase() {
+		return this.primary.clearDatabase();
+	}
+
+	@Override
+	public ITransaction beginTX() {
+		return this.primary.beginTX();
+	}
+
+	@Override
+	public ITransaction getTX() {
+		return this.primary.getTX();
+	}
+
+	@Override
+	public boolean isDatabaseEmpty() {
+		return this.primary.isDatabaseEmpty();
+	}
+
+	@Override
+	public DBType getDBType() {
+		return this.primary.getDBType();
+	}
+
+	@Override
+	public void close() {
+		for (IDBAccess dbAccess : distinctDBAccesses())
+			dbAccess.close();
+	}
+
+	@Override
+	public IDBAccess removeShutdownHook() {
+		for (IDBAccess dbAccess : distinctDBAccesses())
+			dbAccess.removeShutdownHook();
+		return this;
+	}
+
+	@Override
+	public IDBAccess addShutdownHook() {
+		for (IDBAccess dbAccess : distinctDBAccesses())
+			dbAccess.addShutdownHook();
+		return this;
+	}
+
+	/**
+	 * route all queries of the current thread to the primary,
+	 * until a matching call to unpinFromPrimary(). Calls may be nested.
+	 */
+	public void pinToPrimary() {
+		this.primaryPins.get()[0]++;
+	}
+
+	/**
+	 * end routing all queries of the current thread to the primary
+	 */
+	public void unpinFromPrimary() {
+		int[] pins = this.primaryPins.get();
+		if (pins[0] > 0)
+			pins[0]--;
+	}
+
+	/**
+	 * @param retryAfterMillis the time a failed replica is excluded from reads, defaults to 10 seconds
+	 */
+	public void setRetryAfterMillis(long retryAfterMillis) {
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 * answer the number of reads which had to be served by the primary,
+	 * because no replica was available
+	 * @return the number of reads
+	 */
+	public long getPrimaryReads() {
+		return this.primaryReads.get();
+	}
+
+	/**
+	 * answer the number of times a read failed over to another replica or to the primary
+	 * @return the number of failovers
+	 */
+	public long getFailovers() {
+		return this.failovers.get();
+	}
+
+	/**
+	 * answer the number of reads served by the replica at the given index
+	 * @param replicaIndex
+	 * @return the number of reads
+	 */
+	public long getReads(int replicaIndex) {
+		return this.replicas.get(replicaIndex).reads.get();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("RoutingDBAccess [primaryReads=").append(this.primaryReads.get());
+		sb.append(", failovers=").append(this.failovers.get());
+		for (int i = 0; i < this.replicas.size(); i++) {
+			Replica replica = this.replicas.get(i);
+			sb.append(", replica_").append(i).append("=[reads=").append(replica.reads.get());
+			sb.append(", outstanding=").append(replica.outstanding.get());
+			sb.append(", failures=").append(replica.failures.get()).append(']');
+		}
+		sb.append(']');
+		return sb.toString();
+	}
+
+	private boolean isRoutedToPrimary(List<JcQuery> queries) {
+		if (this.primaryPins.get()[0] > 0 || this.primary.getTX() != null)
+			return true;
+		for (JcQuery query : queries) {
+			if (isUpdating(query))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isUpdating(JcQuery query) {
+		IClause[] clauses = query.getClauses();
+		if (clauses == null)
+			return false;
+		for (IClause clause : clauses) {
+			ASTNode astNode = clause instanceof APIObject ? APIObjectAccess.getAstNode((APIObject) clause) : null;
+			// a clause which cannot be classified might update
+			if (astNode == null || astNode.getClauseType() == null)
+				return true;
+			if (UPDATING_CLAUSES.contains(astNode.getClauseType()))
+				return true;
+			if (astNode instanceof NativeCypherExpression && isUpdating(((NativeCypherExpression) astNode).getLines()))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isUpdating(String[] nativeCypher) {
+		StringBuilder sb = new StringBuilder();
+		for (String line : nativeCypher)
+			sb.append(line).append('\n');
+		String code = NATIVE_NOT_CODE.matcher(sb).replaceAll(" ");
+		if (NATIVE_UPDATING.matcher(code).find())
+			return true;
+		Matcher call = NATIVE_CALL.matcher(code);
+		while (call.find()) {
+			if (!READ_ONLY_PROCEDURES.contains(call.group(1)))
+				return true;
+		}
+		return false;
+	}
+
+	private List<IDBAccess> distinctDBAccesses() {
+		Map<IDBAccess, IDBAccess> distinct = new IdentityHashMap<IDBAccess, IDBAccess>();
+		List<IDBAccess> ret = new ArrayList<IDBAccess>();
+		distinct.put(this.primary, this.primary);
+		ret.add(this.primary);
+		for (Replica replica : this.replicas) {
+			if (distinct.put(replica.dbAccess, replica.dbAccess) == null)
+				ret.add(replica.dbAccess);
+		}
+		return ret;
+	}
+
+	private List<JcQueryResult> read(List<JcQuery> queries) {
+		long now = System.currentTimeMillis();
+		int size = this.replicas.size();
+		List<Replica> candidates = new ArrayList<Replica>(size);
+		// start at a rotating position, so that ties are resolved round-robin
+		int start = size > 0 ? (this.nextReplica.getAndIncrement() & Integer.MAX_VALUE) % size : 0;
+		for (int i = 0; i < size; i++) {
+			Replica replica = this.replicas.get((start + i) % size);
+			if (replica.availableAt <= now)
+				candidates.add(replica);
+		}
+		// least outstanding requests first (the sort is stable)
+		Collections.sort(candidates, new Comparator<Replica>() {
+			@Override
+			public int compare(Replica r1, Replica r2) {
+				return Integer.compare(r1.outstanding.get(), r2.outstanding.get());
+			}
+		});
+		for (Replica replica : candidates) {
+			replica.outstanding.incrementAndGet();
+			try {
+				List<JcQueryResult> results = replica.dbAccess.execute(queries);
+				if (!hasGeneralErrors(results)) {
+					replica.reads.incrementAndGet();
+					return results;
+				}
+			} catch (RuntimeException e) {
+				// fail over
+			} finally {
+				replica.outstanding.decrementAndGet();
+			}
+			replica.failures.incrementAndGet();
+			replica.availableAt = System.currentTimeMillis() + this.retryAfterMillis;
+			this.failovers.incrementAndGet();
+		}
+		this.primaryReads.incrementAndGet();
+		return this.primary.execute(queries);
+	}
+
+	/**
+	 * general errors denote a failure of the database access (e.g. a connection failure),
+	 * db errors are caused by the query itself and would occur on every replica.
+	 */
+	private static boolean hasGeneralErrors(List<JcQueryResult> results) {
+		for (JcQueryResult result : results) {
+			if (!result.getGeneralErrors().isEmpty())
+				return true;
+		}
+		return false;
+	}
+
+	/*********************************************/
+	private static class Replica {
+		private IDBAccess dbAccess;
+		private AtomicInteger outstanding;
+		private AtomicLong reads;
+		private AtomicLong failures;
+		private volatile long availableAt;
+
+		private Replica(IDBAccess dbAccess) {
+			super();
+			this.dbAccess = dbAccess;
+			this.outstanding = new AtomicInteger();
+			this.reads = new AtomicLong();
+			this.failures = new AtomicLong();
+		}
+	}
+
+	/*********************************************/
+	/**
+	 * pins the thread to the primary while storing.
+	 * <br/>Note: Stores through the IGenericDomainAccess are not pinned.
+	 */
+	private class RoutingDomainAccess extends DelegatingDomainAccess {
+
+		private RoutingDomainAccess(IDomainAccess delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public List<JcError> store(List<?> domainObjects) {
+			pinToPrimary();
+			try {
+				return this.delegate.store(domainObjects);
+			} finally {
+				unpinFromPrimary();
+			}
+		}
+
+		@Override
+		public List<JcError> store(Object domainObject) {
+			pinToPrimary();
+			try {
+				return this.delegate.store(domainObject);
+			} finally {
+				unpinFromPrimary();
+			}
+		}
+	}
+}
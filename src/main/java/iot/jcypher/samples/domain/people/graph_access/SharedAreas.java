@@ -0,0 +1,267 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.graph_access;
+
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domain.SyncInfo;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.samples.domain.people.model.Address;
+import iot.jcypher.samples.domain.people.model.Area;
+import iot.jcypher.samples.domain.people.model.Person;
+import iot.jcypher.samples.domain.people.model.PointOfContact;
+import iot.jcypher.samples.domain.people.model.Subject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An Area hierarchy shared by many independently stored parts of a population
+ * (e.g. chunks or families).
+ * <br/>The Areas are stored once, through the IDomainAccess they are first stored with
+ * (Areas which become known later on are stored through the same IDomainAccess,
+ * so that the parts of the hierarchy they refer to are not stored a second time).
+ * Later on they are resolved by id through any other IDomainAccess (see bindTo(..)).
+ * While a part of the population is stored through that IDomainAccess, the part's Addresses
+ * temporarily refer to the resolved Areas, so that the Areas are not stored a second time.
+ * Afterwards the Addresses refer to the original Areas again.
+ */
+public class SharedAreas {
+
+	private List<Area> areas;
+	private Map<Area, Area> known;
+	private Map<Area, Long> ids;
+	private IDomainAccess storeAccess;
+
+	/**
+	 * create SharedAreas which become known while storing (see storeReferencedBy(..))
+	 */
+	public SharedAreas() {
+		this(Collections.<Area>emptyList());
+	}
+
+	/**
+	 * @param areas the Areas of the hierarchy
+	 */
+	public SharedAreas(List<Area> areas) {
+		super();
+		this.areas = new ArrayList<Area>();
+		this.known = new IdentityHashMap<Area, Area>();
+		this.ids = new IdentityHashMap<Area, Long>();
+		add(areas);
+	}
+
+	/**
+	 * answer true if all known Areas have been stored
+	 * @return true if stored
+	 */
+	public synchronized boolean isStored() {
+		return this.ids.size() == this.areas.size();
+	}
+
+	/**
+	 * answer true if the given Area is one of the shared Areas
+	 * @param area
+	 * @return true if shared
+	 */
+	public synchronized boolean contains(Area area) {
+		return this.known.containsKey(area);
+	}
+
+	/**
+	 * store the known Areas (if not already stored) and remember their ids
+	 * @param domainAccess the IDomainAccess to store through, if no Areas have been stored before
+	 * @return a list of errors, which is empty if storing was successful
+	 */
+	public synchronized List<JcError> store(IDomainAccess domainAccess) {
+		List<Area> toStore = new ArrayList<Area>();
+		for (Area area : this.areas) {
+			if (!this.ids.containsKey(area))
+				toStore.add(area);
+		}
+		if (toStore.isEmpty())
+			return Collections.emptyList();
+		if (this.storeAccess == null)
+			this.storeAccess = domainAccess;
+		List<JcError> errors = this.storeAccess.store(toStore);
+		if (errors.isEmpty()) {
+			List<SyncInfo> syncInfos = this.storeAccess.getSyncInfos(new ArrayList<Object>(toStore));
+			for (int i = 0; i < syncInfos.size(); i++)
+				this.ids.put(toStore.get(i), Long.valueOf(syncInfos.get(i).getId()));
+		}
+		return errors;
+	}
+
+	/**
+	 * add the Areas referenced by the given root objects (Areas, and the Areas of the Addresses
+	 * of Subjects and their parents) to the shared Areas, store those which have not been stored yet
+	 * @param rootObjects
+	 * @param domainAccess the IDomainAccess to store through, if no Areas have been stored before
+	 * @return a list of errors, which is empty if storing was successful
+	 */
+	public List<JcError> storeReferencedBy(List<?> rootObjects, IDomainAccess domainAccess) {
+		List<Area> referenced = new ArrayList<Area>();
+		for (Object obj : rootObjects) {
+			if (obj instanceof Area)
+				referenced.add((Area) obj);
+		}
+		for (Address address : addressesOf(rootObjects))
+			referenced.add(address.getArea());
+		synchronized (this) {
+			add(referenced);
+			return store(domainAccess);
+		}
+	}
+
+	/**
+	 * answer a binding of the shared Areas to the same Areas loaded through the given IDomainAccess.
+	 * Areas are loaded, when they are bound for the first time.
+	 * @param domainAccess
+	 * @return a Binding
+	 */
+	public Binding bindTo(IDomainAccess domainAccess) {
+		return new Binding(domainAccess);
+	}
+
+	/**
+	 * answer the given root objects without the shared Areas among them
+	 * (they are stored by this)
+	 * @param rootObjects
+	 * @return a list of root objects
+	 */
+	public List<Object> withoutAreas(List<?> rootObjects) {
+		List<Object> ret = new ArrayList<Object>(rootObjects.size());
+		for (Object obj : rootObjects) {
+			if (!(obj instanceof Area) || !contains((Area) obj))
+				ret.add(obj);
+		}
+		return ret;
+	}
+
+	/**
+	 * let the Addresses refer to their original Areas again
+	 * @param originals as answered by Binding.rebind(..)
+	 */
+	public static void restore(Map<Address, Area> originals) {
+		for (Map.Entry<Address, Area> entry : originals.entrySet())
+			entry.getKey().setArea(entry.getValue());
+	}
+
+	/**
+	 * add Areas and the Areas they are part of, if not yet known
+	 */
+	private void add(List<Area> toAdd) {
+		for (Area area : toAdd) {
+			for (Area a = area; a != null && this.known.put(a, a) == null; a = a.getPartOf())
+				this.areas.add(a);
+		}
+	}
+
+	private synchronized Long idOf(Area area) {
+		return this.ids.get(area);
+	}
+
+	/**
+	 * answer the Addresses (with an Area) of the given root objects and of their parents
+	 */
+	private static List<Address> addressesOf(List<?> rootObjects) {
+		List<Address> ret = new ArrayList<Address>();
+		Map<Object, Object> visited = new IdentityHashMap<Object, Object>();
+		List<Subject> toVisit = new ArrayList<Subject>();
+		for (Object obj : rootObjects) {
+			if (obj instanceof Subject)
+				toVisit.add((Subject) obj);
+		}
+		while (!toVisit.isEmpty()) {
+			Subject subject = toVisit.remove(toVisit.size() - 1);
+			if (visited.put(subject, subject) != null)
+				continue;
+			for (PointOfContact poc : subject.getPointsOfContact()) {
+				if (poc instanceof Address && ((Address) poc).getArea() != null
+						&& visited.put(poc, poc) == null)
+					ret.add((Address) poc);
+			}
+			if (subject instanceof Person) {
+				Person person = (Person) subject;
+				if (person.getMother() != null)
+					toVisit.add(person.getMother());
+				if (person.getFather() != null)
+					toVisit.add(person.getFather());
+			}
+		}
+		return ret;
+	}
+
+	/*********************************************/
+	/**
+	 * the shared Areas, as loaded through one IDomainAccess
+	 */
+	public class Binding {
+		private IDomainAccess domainAccess;
+		private Map<Area, Area> resolved;
+
+		private Binding(IDomainAccess domainAccess) {
+			super();
+			this.domainAccess = domainAccess;
+			this.resolved = new IdentityHashMap<Area, Area>();
+		}
+
+		/**
+		 * let the Addresses of the given root objects (and of their parents)
+		 * refer to the bound Areas, until they are restored (see SharedAreas.restore(..)).
+		 * Areas which are not shared are left as they are.
+		 * @param rootObjects
+		 * @return the Addresses which have been rebound, mapped to their original Areas
+		 */
+		public Map<Address, Area> rebind(List<?> rootObjects) {
+			List<Address> addresses = addressesOf(rootObjects);
+			List<Area> toLoad = new ArrayList<Area>();
+			List<Long> toLoadIds = new ArrayList<Long>();
+			Map<Area, Area> pending = new IdentityHashMap<Area, Area>();
+			for (Address address : addresses) {
+				Area area = address.getArea();
+				if (this.resolved.containsKey(area) || pending.containsKey(area))
+					continue;
+				Long id = idOf(area);
+				if (id != null) {
+					pending.put(area, area);
+					toLoad.add(area);
+					toLoadIds.add(id);
+				}
+			}
+			if (!toLoad.isEmpty()) {
+				long[] ids = new long[toLoadIds.size()];
+				for (int i = 0; i < ids.length; i++)
+					ids[i] = toLoadIds.get(i).longValue();
+				List<Area> loaded = this.domainAccess.loadByIds(Area.class, -1, ids);
+				for (int i = 0; i < toLoad.size(); i++)
+					this.resolved.put(toLoad.get(i), loaded.get(i));
+			}
+			Map<Address, Area> originals = new IdentityHashMap<Address, Area>();
+			for (Address address : addresses) {
+				Area bound = this.resolved.get(address.getArea());
+				if (bound != null) {
+					originals.put(address, address.getArea());
+					address.setArea(bound);
+				}
+			}
+			return originals;
+		}
+	}
+}
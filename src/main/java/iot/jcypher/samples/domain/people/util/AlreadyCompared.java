@@ -16,12 +16,17 @@
 
 package iot.jcypher.samples.domain.people.util;
 
-import java.util.List;
+import java.util.Map;
 
+/**
+ * A pair of objects which have been (or are being) compared.
+ * <br/>Pairs are equal if they consist of the same (identical) objects in any order,
+ * so that already compared pairs can be looked up in a hash map.
+ */
 public class AlreadyCompared {
 	private Object object1;
 	private Object object2;
-	private boolean result;
+	private volatile boolean result;
 	
 	public AlreadyCompared(Object object1, Object object2) {
 		super();
@@ -39,12 +44,24 @@ public class AlreadyCompared {
 	}
 
 	public static AlreadyCompared alreadyCompared(Object obj1, Object obj2,
-			List<AlreadyCompared> alreadyCompareds) {
-		for (AlreadyCompared ac : alreadyCompareds) {
-			if ((ac.object1 == obj1 && ac.object2 == obj2) ||
-					(ac.object1 == obj2 && ac.object2 == obj2))
-				return ac;
-		}
-		return null;
+			Map<AlreadyCompared, AlreadyCompared> alreadyCompareds) {
+		return alreadyCompareds.get(new AlreadyCompared(obj1, obj2));
+	}
+
+	@Override
+	public int hashCode() {
+		// symmetric
+		return System.identityHashCode(this.object1) ^ System.identityHashCode(this.object2);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof AlreadyCompared))
+			return false;
+		AlreadyCompared other = (AlreadyCompared) obj;
+		return (this.object1 == other.object1 && this.object2 == other.object2) ||
+				(this.object1 == other.object2 && this.object2 == other.object1);
 	}
 }
@@ -21,21 +21,26 @@ import iot.jcypher.samples.domain.people.model.Area;
 import iot.jcypher.samples.domain.people.model.Company;
 import iot.jcypher.samples.domain.people.model.EContact;
 import iot.jcypher.samples.domain.people.model.Person;
-import iot.jcypher.samples.domain.people.model.Subject;
+import iot.jcypher.samples.domain.people.util.ModelComparators.ModelComparator;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 public class CompareUtil {
 
+	/** the depth up to which references are followed when computing a fingerprint */
+	public static final int FINGERPRINT_DEPTH = 3;
+
 	public static boolean equalsObjects(Object o_1, Object o_2) {
 		return equalsObjects(o_1, o_2, null);
 	}
 	
 	@SuppressWarnings("rawtypes")
 	public static boolean equalsUnorderedList(List list_1, List list_2) {
-		ArrayList<AlreadyCompared> acs = new ArrayList<AlreadyCompared>();
+		Map<AlreadyCompared, AlreadyCompared> acs = new HashMap<AlreadyCompared, AlreadyCompared>();
 		if (list_1.size() != list_2.size())
         	return false;
 		ListIterator<?> e1 = list_1.listIterator();
@@ -56,148 +61,154 @@ public class CompareUtil {
         return true;
 	}
 	
-	private static boolean equalsObjects(Object o_1, Object o_2, List<AlreadyCompared> alreadyCompareds) {
-		List<AlreadyCompared> acs = alreadyCompareds;
-		if (acs == null)
-			acs = new ArrayList<AlreadyCompared>();
-		
-		if (o_1 == o_2)
-			return true;
-		if (o_1 == null) {
-			if (o_2 != null)
+	/**
+	 * compare two lists, ignoring the order of their elements.
+	 * @param list_1
+	 * @param list_2
+	 * @param useFingerprints if true, a structural fingerprint is computed for every element,
+	 * elements are only deep-compared to elements with the same fingerprint,
+	 * which makes the comparison near-linear. Every element of list_2 is matched at most once.
+	 * <br/>If false, every element of list_1 is deep-compared to the elements of list_2
+	 * until an equal one is found (quadratic).
+	 * @return true if both lists contain equal elements
+	 */
+	@SuppressWarnings("rawtypes")
+	public static boolean equalsUnorderedList(List list_1, List list_2, boolean useFingerprints) {
+		if (!useFingerprints)
+			return equalsUnorderedList(list_1, list_2);
+		if (list_1.size() != list_2.size())
+			return false;
+		Map<Integer, List<Object>> buckets = new HashMap<Integer, List<Object>>();
+		for (Object o2 : list_2) {
+			Integer fp = Integer.valueOf(fingerprint(o2, FINGERPRINT_DEPTH));
+			List<Object> bucket = buckets.get(fp);
+			if (bucket == null) {
+				bucket = new ArrayList<Object>(1);
+				buckets.put(fp, bucket);
+			}
+			bucket.add(o2);
+		}
+		Map<AlreadyCompared, AlreadyCompared> acs = new HashMap<AlreadyCompared, AlreadyCompared>();
+		for (Object o1 : list_1) {
+			List<Object> bucket = buckets.get(Integer.valueOf(fingerprint(o1, FINGERPRINT_DEPTH)));
+			if (bucket == null)
+				return false;
+			boolean found = false;
+			for (int i = 0; i < bucket.size(); i++) {
+				Object o2 = bucket.get(i);
+				if (o1==null ? o2==null : equalsObjects(o1, o2, acs)) {
+					// swap remove, the order within a bucket is irrelevant
+					bucket.set(i, bucket.get(bucket.size() - 1));
+					bucket.remove(bucket.size() - 1);
+					found = true;
+					break;
+				}
+			}
+			if (!found)
 				return false;
 		}
-		if (!o_1.getClass().equals(o_2.getClass()))
-			return false;
-		if (o_1 instanceof Person)
-			return CompareUtil.equalsPerson((Person)o_1, (Person)o_2, acs);
-		else if (o_1 instanceof Company)
-			return CompareUtil.equalsCompany((Company)o_1, (Company)o_2, acs);
-		else if (o_1 instanceof Address)
-			return CompareUtil.equalsAddress((Address)o_1, (Address)o_2, acs);
-		else if (o_1 instanceof EContact)
-			return CompareUtil.equalsEContact((EContact)o_1, (EContact)o_2, acs);
-		else if (o_1 instanceof Area)
-			return CompareUtil.equalsArea((Area)o_1, (Area)o_2, acs);
-		else if (o_1 instanceof List<?>)
-			return CompareUtil.equalsList((List<?>)o_1, (List<?>)o_2, acs);
-		else
-			return o_1.equals(o_2);
+		return true;
 	}
 	
-	private static boolean equalsCompany(Company o_1, Company o_2, List<AlreadyCompared> alreadyCompareds) {
-		List<AlreadyCompared> acs = alreadyCompareds;
-		if (acs == null)
-			acs = new ArrayList<AlreadyCompared>();
-		AlreadyCompared ac = AlreadyCompared.alreadyCompared(o_1, o_2, acs);
-		if (ac != null) // avoid infinite loops
-			return ac.getResult();
-		
-		ac = new AlreadyCompared(o_1, o_2);
-		acs.add(ac);
-		
-		ac.setResult(true);
-		
-		if (o_1 == o_2)
-			return true;
-		if (o_1 == null) {
-			if (o_2 != null)
-				return ac.setResult(false);
-		}
-		if (o_1.getClass() != o_2.getClass())
-			return ac.setResult(false);
-		if (!equalsSubject(o_1, o_2, acs))
-			return ac.setResult(false);
-		if (o_1.getName() == null) {
-			if (o_2.getName() != null)
-				return ac.setResult(false);
-		} else if (!o_1.getName().equals(o_2.getName()))
-			return ac.setResult(false);
-		return true;
+	/**
+	 * answer a structural fingerprint of an object graph,
+	 * equal object graphs (see equalsObjects(..)) have equal fingerprints.
+	 * References are followed up to the given depth only,
+	 * so cycles (e.g. via mother, father, or partOf) are no problem.
+	 * @param obj
+	 * @param depth
+	 * @return a fingerprint
+	 */
+	public static int fingerprint(Object obj, int depth) {
+		if (obj == null)
+			return 0;
+		int h = obj.getClass().getName().hashCode();
+		if (obj instanceof Person) {
+			Person p = (Person) obj;
+			h = 31 * h + hash(p.getFirstName());
+			h = 31 * h + hash(p.getLastName());
+			h = 31 * h + hash(p.getGender());
+			h = 31 * h + hash(p.getEyeColor());
+			if (depth > 0) {
+				h = 31 * h + fingerprint(p.getMother(), depth - 1);
+				h = 31 * h + fingerprint(p.getFather(), depth - 1);
+				h = 31 * h + fingerprint(p.getPointsOfContact(), depth - 1);
+			}
+		} else if (obj instanceof Company) {
+			Company c = (Company) obj;
+			h = 31 * h + hash(c.getName());
+			if (depth > 0)
+				h = 31 * h + fingerprint(c.getPointsOfContact(), depth - 1);
+		} else if (obj instanceof Address) {
+			Address a = (Address) obj;
+			h = 31 * h + hash(a.getStreet());
+			h = 31 * h + a.getNumber();
+			if (depth > 0)
+				h = 31 * h + fingerprint(a.getArea(), depth - 1);
+		} else if (obj instanceof EContact) {
+			EContact e = (EContact) obj;
+			h = 31 * h + hash(e.geteAddress());
+			h = 31 * h + hash(e.getType());
+		} else if (obj instanceof Area) {
+			Area a = (Area) obj;
+			h = 31 * h + hash(a.getAreaCode());
+			h = 31 * h + hash(a.getName());
+			h = 31 * h + hash(a.getAreaType());
+			if (depth > 0)
+				h = 31 * h + fingerprint(a.getPartOf(), depth - 1);
+		} else if (obj instanceof List<?>) {
+			List<?> list = (List<?>) obj;
+			h = 31 * h + list.size();
+			if (depth > 0) {
+				for (Object elem : list)
+					h = 31 * h + fingerprint(elem, depth - 1);
+			}
+		} else
+			h = hash(obj);
+		return h;
 	}
 	
-	private static boolean equalsPerson(Person o_1, Person o_2, List<AlreadyCompared> alreadyCompareds) {
-		List<AlreadyCompared> acs = alreadyCompareds;
-		if (acs == null)
-			acs = new ArrayList<AlreadyCompared>();
-		AlreadyCompared ac = AlreadyCompared.alreadyCompared(o_1, o_2, acs);
-		if (ac != null) // avoid infinite loops
-			return ac.getResult();
-		
-		ac = new AlreadyCompared(o_1, o_2);
-		acs.add(ac);
-		
-		ac.setResult(true);
-		
-		if (o_1 == o_2)
-			return true;
-		if (o_1 == null) {
-			if (o_2 != null)
-				return ac.setResult(false);
-		}
-		if (o_1.getClass() != o_2.getClass())
-			return ac.setResult(false);
-		if (!equalsSubject(o_1, o_2, acs))
-			return ac.setResult(false);
-		if (o_1.getFirstName() == null) {
-			if (o_2.getFirstName() != null)
-				return ac.setResult(false);
-		} else if (!o_1.getFirstName().equals(o_2.getFirstName()))
-			return ac.setResult(false);
-		if (o_1.getGender() != o_2.getGender())
-			return ac.setResult(false);
-		if (o_1.getLastName() == null) {
-			if (o_2.getLastName() != null)
-				return ac.setResult(false);
-		} else if (!o_1.getLastName().equals(o_2.getLastName()))
-			return ac.setResult(false);
-		if (o_1.getEyeColor() == null) {
-			if (o_2.getEyeColor() != null)
-				return ac.setResult(false);
-		} else if (!o_1.getEyeColor().equals(o_2.getEyeColor()))
-			return ac.setResult(false);
-		if (o_1.getMother() == null) {
-			if (o_2.getMother() != null)
-				return ac.setResult(false);
-		} else if (!equalsPerson(o_1.getMother(), o_2.getMother(), alreadyCompareds))
-			return ac.setResult(false);
-		if (o_1.getFather() == null) {
-			if (o_2.getFather() != null)
-				return ac.setResult(false);
-		} else if (!equalsPerson(o_1.getFather(), o_2.getFather(), alreadyCompareds))
-			return ac.setResult(false);
-		return true;
+	private static int hash(Object obj) {
+		if (obj == null)
+			return 0;
+		// enum hash codes are identity based
+		if (obj instanceof Enum<?>)
+			return ((Enum<?>) obj).name().hashCode();
+		return obj.hashCode();
 	}
 	
-	private static boolean equalsSubject(Subject o_1, Subject o_2, List<AlreadyCompared> alreadyCompareds) {
-		List<AlreadyCompared> acs = alreadyCompareds;
+	static boolean equalsObjects(Object o_1, Object o_2, Map<AlreadyCompared, AlreadyCompared> alreadyCompareds) {
+		Map<AlreadyCompared, AlreadyCompared> acs = alreadyCompareds;
 		if (acs == null)
-			acs = new ArrayList<AlreadyCompared>();
+			acs = new HashMap<AlreadyCompared, AlreadyCompared>();
+		
 		if (o_1 == o_2)
 			return true;
-		if (o_1.getClass() != o_2.getClass())
+		if (o_1 == null || o_2 == null)
 			return false;
-		if (o_1.getPointsOfContact() == null) {
-			if (o_2.getPointsOfContact() != null)
-				return false;
-		} else if (!equalsList(o_1.getPointsOfContact(), o_2.getPointsOfContact(), acs))
+		if (!o_1.getClass().equals(o_2.getClass()))
 			return false;
-		return true;
+		if (o_1 instanceof List<?>)
+			return CompareUtil.equalsList((List<?>)o_1, (List<?>)o_2, acs);
+		ModelComparator comparator = ModelComparators.comparatorFor(o_1.getClass());
+		if (comparator != null)
+			return comparator.equals(o_1, o_2, acs);
+		return o_1.equals(o_2);
 	}
 	
 	@SuppressWarnings("rawtypes")
-	private static boolean equalsList(List list_1, List list_2, List<AlreadyCompared> alreadyCompareds) {
-		List<AlreadyCompared> acs = alreadyCompareds;
+	private static boolean equalsList(List list_1, List list_2, Map<AlreadyCompared, AlreadyCompared> alreadyCompareds) {
+		Map<AlreadyCompared, AlreadyCompared> acs = alreadyCompareds;
 		if (acs == null)
-			acs = new ArrayList<AlreadyCompared>();
+			acs = new HashMap<AlreadyCompared, AlreadyCompared>();
 		AlreadyCompared ac = AlreadyCompared.alreadyCompared(list_1, list_2, acs);
 		if (ac != null) // avoid infinite loops
 			return ac.getResult();
 		
 		ac = new AlreadyCompared(list_1, list_2);
-		acs.add(ac);
-		
+		// set before publishing, the map may be shared among threads (see ParallelCompareUtil)
 		ac.setResult(true);
+		acs.put(ac, ac);
 		
 		 if (list_1 == list_2)
             return true;
@@ -214,112 +225,4 @@ public class CompareUtil {
         }
         return ac.setResult(!(e1.hasNext() || e2.hasNext()));
 	}
-	
-	private static boolean equalsAddress(Address o_1, Address o_2, List<AlreadyCompared> alreadyCompareds) {
-		List<AlreadyCompared> acs = alreadyCompareds;
-		if (acs == null)
-			acs = new ArrayList<AlreadyCompared>();
-		AlreadyCompared ac = AlreadyCompared.alreadyCompared(o_1, o_2, acs);
-		if (ac != null) // avoid infinite loops
-			return ac.getResult();
-		
-		ac = new AlreadyCompared(o_1, o_2);
-		acs.add(ac);
-		
-		ac.setResult(true);
-		
-		if (o_1 == o_2)
-			return true;
-		if (o_1 == null) {
-			if (o_2 != null)
-				return ac.setResult(false);
-		}
-		if (o_1.getClass() != o_2.getClass())
-			return ac.setResult(false);
-		if (o_1.getArea() == null) {
-			if (o_2.getArea() != null)
-				return ac.setResult(false);
-		} else if (!equalsArea(o_1.getArea(), o_2.getArea(), acs))
-			return ac.setResult(false);
-		if (o_1.getNumber() != o_2.getNumber())
-			return ac.setResult(false);
-		if (o_1.getStreet() == null) {
-			if (o_2.getStreet() != null)
-				return ac.setResult(false);
-		} else if (!o_1.getStreet().equals(o_2.getStreet()))
-			return ac.setResult(false);
-		return true;
-	}
-	
-	private static boolean equalsEContact(EContact o_1, EContact o_2, List<AlreadyCompared> alreadyCompareds) {
-		List<AlreadyCompared> acs = alreadyCompareds;
-		if (acs == null)
-			acs = new ArrayList<AlreadyCompared>();
-		AlreadyCompared ac = AlreadyCompared.alreadyCompared(o_1, o_2, acs);
-		if (ac != null) // avoid infinite loops
-			return ac.getResult();
-		
-		ac = new AlreadyCompared(o_1, o_2);
-		acs.add(ac);
-		
-		ac.setResult(true);
-		
-		if (o_1 == o_2)
-			return true;
-		if (o_1 == null) {
-			if (o_2 != null)
-				return ac.setResult(false);
-		}
-		if (o_1.getClass() != o_2.getClass())
-			return ac.setResult(false);
-		if (o_1.geteAddress() == null) {
-			if (o_2.geteAddress() != null)
-				return ac.setResult(false);
-		} else if (!o_1.geteAddress().equals(o_2.geteAddress()))
-			return ac.setResult(false);
-		if (o_1.getType() != o_2.getType())
-			return ac.setResult(false);
-		return true;
-	}
-	
-	private static boolean equalsArea(Area o_1, Area o_2, List<AlreadyCompared> alreadyCompareds) {
-		List<AlreadyCompared> acs = alreadyCompareds;
-		if (acs == null)
-			acs = new ArrayList<AlreadyCompared>();
-		AlreadyCompared ac = AlreadyCompared.alreadyCompared(o_1, o_2, acs);
-		if (ac != null) // avoid infinite loops
-			return ac.getResult();
-		
-		ac = new AlreadyCompared(o_1, o_2);
-		acs.add(ac);
-		
-		ac.setResult(true);
-		
-		if (o_1 == o_2)
-			return true;
-		if (o_1 == null) {
-			if (o_2 != null)
-				return ac.setResult(false);
-		}
-		if (o_1.getClass() != o_2.getClass())
-			return ac.setResult(false);
-		if (o_1.getAreaCode() == null) {
-			if (o_2.getAreaCode() != null)
-				return ac.setResult(false);
-		} else if (!o_1.getAreaCode().equals(o_2.getAreaCode()))
-			return ac.setResult(false);
-		if (o_1.getAreaType() != o_2.getAreaType())
-			return ac.setResult(false);
-		if (o_1.getName() == null) {
-			if (o_2.getName() != null)
-				return ac.setResult(false);
-		} else if (!o_1.getName().equals(o_2.getName()))
-			return ac.setResult(false);
-		if (o_1.getPartOf() == null) {
-			if (o_2.getPartOf() != null)
-				return ac.setResult(false);
-		} else if (!equalsArea(o_1.getPartOf(), o_2.getPartOf(), acs))
-			return ac.setResult(false);
-		return true;
-	}
 }
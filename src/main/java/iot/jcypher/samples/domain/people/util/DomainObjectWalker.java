@@ -0,0 +1,114 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.util;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the domain objects reachable from a set of root objects,
+ * following the fields of domain objects and the elements of collections, maps and arrays
+ * (the way JCypher maps an object graph to the graph database).
+ * <br/>Primitives, Strings, enums and other JDK types are not domain objects.
+ */
+public class DomainObjectWalker {
+
+	private static Map<Class<?>, List<Field>> fieldsPerClass = new IdentityHashMap<Class<?>, List<Field>>();
+
+	/**
+	 * answer all domain objects reachable from the given root objects, including the roots
+	 * @param roots
+	 * @return a list of domain objects, each one contained once
+	 */
+	public static List<Object> collect(List<?> roots) {
+		Map<Object, Object> visited = new IdentityHashMap<Object, Object>();
+		List<Object> ret = new ArrayList<Object>();
+		List<Object> toVisit = new ArrayList<Object>(roots);
+		while (!toVisit.isEmpty()) {
+			Object obj = toVisit.remove(toVisit.size() - 1);
+			if (obj == null || visited.put(obj, obj) != null)
+				continue;
+			if (obj instanceof Collection<?>)
+				toVisit.addAll((Collection<?>) obj);
+			else if (obj instanceof Map<?, ?>) {
+				toVisit.addAll(((Map<?, ?>) obj).keySet());
+				toVisit.addAll(((Map<?, ?>) obj).values());
+			} else if (obj.getClass().isArray()) {
+				if (!obj.getClass().getComponentType().isPrimitive()) {
+					for (int i = 0; i < Array.getLength(obj); i++)
+						toVisit.add(Array.get(obj, i));
+				}
+			} else if (isDomainObject(obj.getClass())) {
+				ret.add(obj);
+				for (Field field : getFields(obj.getClass())) {
+					try {
+						toVisit.add(field.get(obj));
+					} catch (IllegalAccessException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * answer the classes of all domain objects reachable from the given root objects
+	 * @param roots
+	 * @return a list of classes, each one contained once
+	 */
+	public static List<Class<?>> collectTypes(List<?> roots) {
+		List<Class<?>> ret = new ArrayList<Class<?>>();
+		for (Object obj : collect(roots)) {
+			if (!ret.contains(obj.getClass()))
+				ret.add(obj.getClass());
+		}
+		return ret;
+	}
+
+	private static boolean isDomainObject(Class<?> clazz) {
+		if (clazz.isEnum() || clazz.isPrimitive())
+			return false;
+		String name = clazz.getName();
+		return !(name.startsWith("java.") || name.startsWith("javax."));
+	}
+
+	private static synchronized List<Field> getFields(Class<?> clazz) {
+		List<Field> fields = fieldsPerClass.get(clazz);
+		if (fields == null) {
+			fields = new ArrayList<Field>();
+			Class<?> cls = clazz;
+			while (cls != null && cls != Object.class) {
+				for (Field field : cls.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive())
+						continue;
+					field.setAccessible(true);
+					fields.add(field);
+				}
+				cls = cls.getSuperclass();
+			}
+			fieldsPerClass.put(clazz, fields);
+		}
+		return fields;
+	}
+}
@@ -16,6 +16,9 @@
 
 package iot.jcypher.samples.domain.people.util;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.List;
 
 import iot.jcypher.domain.genericmodel.DOField;
@@ -26,13 +29,24 @@ import iot.jcypher.domain.genericmodel.internal.DOWalker.IndexedField;
 import iot.jcypher.domain.genericmodel.internal.IDOVisitor;
 import iot.jcypher.query.writer.Format;
 
+/**
+ * Renders a graph of DomainObjects (walked by a DOWalker) as a String.
+ * <br/>By default the rendering is collected in a buffer (see getBuffer()), a large graph
+ * (e.g. 10^5 DomainObjects dumped for diagnostics) can instead be streamed to an Appendable
+ * (e.g. a BufferedWriter), see GenObjectToString(Format, String, int, Appendable).
+ * An IOException of the Appendable is rethrown as an UncheckedIOException.
+ */
 public class GenObjectToString implements IDOVisitor {
 
 	private StringBuilder buffer;
+	private Appendable out;
 	private Format format;
 	private String indent;
 	private int maxDepth;
-	private List<DomainObject> theDomainObjects;
+	// indents[depth] is the line break followed by the indent of depth, built once per depth
+	private String[] indents;
+	private int numDomainObjects;
+	private int domainObjectIndex;
 	
 	public GenObjectToString(Format format) {
 		this(format, "  ");
@@ -51,108 +65,139 @@ public class GenObjectToString implements IDOVisitor {
 	}
 	
 	public GenObjectToString(Format format, String indent, int maxDepth) {
-		this.buffer = new StringBuilder();
+		this(format, indent, maxDepth, new StringBuilder());
+	}
+	
+	/**
+	 * @param format
+	 * @param indent
+	 * @param maxDepth the resolution depth
+	 * @param out the rendering is appended to out, while the graph is walked
+	 */
+	public GenObjectToString(Format format, String indent, int maxDepth, Appendable out) {
+		this.buffer = out instanceof StringBuilder ? (StringBuilder) out : null;
+		this.out = out;
 		this.format = format;
 		this.indent = indent;
 		this.maxDepth = maxDepth;
+		this.indents = new String[] {"\n"};
 	}
 
 	@Override
 	public void startVisitDomainObjects(List<DomainObject> domainObjects) {
-		this.theDomainObjects = domainObjects;
+		this.numDomainObjects = domainObjects.size();
+		this.domainObjectIndex = 0;
 		if (domainObjects.size() > 1)
-			buffer.append('[');
+			append('[');
 	}
 
 	@Override
 	public void endVisitDomainObjects(List<DomainObject> domainObjects) {
 		if (domainObjects.size() > 1)
-			buffer.append(']');
-		this.theDomainObjects = null;
+			append(']');
+		this.numDomainObjects = 0;
 	}
 
 	@Override
 	public boolean startVisitDomainObject(DomainObject domainObject, Field field,
 			int depth) {
 		boolean ret = this.maxDepth == -1 ? true : depth >= this.maxDepth ? false : true;
-		String ind = initLine(depth);
-		buffer.append(ind);
+		initLine(depth);
 		DOType dot = domainObject.getDomainObjectType();
-		buffer.append(dot.getName());
-		buffer.append(" {");
+		append(dot.getName());
+		append(" {");
 		return ret;
 	}
 
 	@Override
 	public void endVisitDomainObject(DomainObject domainObject, Field field,
 			int depth) {
-		String ind = initLine(depth);
-		buffer.append(ind);
-		buffer.append('}');
+		initLine(depth);
+		append('}');
 		if (field instanceof IndexedField) {
 			if (((IndexedField) field).getIndex() < ((IndexedField) field).getSize() - 1)
-				buffer.append(',');
-		} else if (depth == 0 && this.theDomainObjects.indexOf(domainObject) < 
-				this.theDomainObjects.size() - 1) {
-			buffer.append(',');
+				append(',');
+		} else if (depth == 0) {
+			// root objects are visited in the order of the list
+			if (this.domainObjectIndex < this.numDomainObjects - 1)
+				append(',');
+			this.domainObjectIndex++;
 		}
 	}
 
 	@Override
 	public void startVisitField(DOField field, Object fieldValue, int depth) {
 		boolean ret = this.maxDepth == -1 ? true : depth >= this.maxDepth + 1 ? false : true;
-		String ind = initLine(depth);
-		buffer.append(ind);
-		buffer.append(field.getName());
-		buffer.append(" :");
+		initLine(depth);
+		append(field.getName());
+		append(" :");
 		if (field.isListOrArray())
-			buffer.append(" [");
+			append(" [");
 		else if (!(fieldValue instanceof DomainObject)) {
-			buffer.append(' ');
-			buffer.append(stringRepresentationOf(fieldValue));
+			append(' ');
+			appendValue(fieldValue);
 		} else if (!ret) {
 			if (fieldValue != null)
-				buffer.append("-->");
+				append("-->");
 		}
 	}
 
 	@Override
 	public void endVisitField(DOField field, Object fieldValue, int depth) {
 		if (field.isListOrArray())
-			buffer.append(']');
+			append(']');
 	}
 
+	/**
+	 * answer the buffer the rendering is collected in,
+	 * null if the rendering is streamed to an Appendable other than a StringBuilder
+	 * @return the buffer
+	 */
 	public StringBuilder getBuffer() {
 		return buffer;
 	}
 
-	private String buildIndent(int depth) {
-		String ret = "";
-		for (int i = 0; i < depth; i++) {
-			ret = ret.concat(indent);
+	private String indentOf(int depth) {
+		if (depth >= this.indents.length) {
+			int length = this.indents.length;
+			this.indents = Arrays.copyOf(this.indents, Math.max(depth + 1, length * 2));
+			for (int i = length; i < this.indents.length; i++)
+				this.indents[i] = this.indents[i - 1].concat(indent);
 		}
-		return ret;
+		return this.indents[depth];
 	}
 	
-	private String stringRepresentationOf(Object obj) {
-		String ret;
+	private void appendValue(Object obj) {
 		if (obj == null)
-			ret = "null";
-		else if (obj instanceof String)
-			ret = "\"".concat((String)obj).concat("\"");
+			append("null");
+		else if (obj instanceof String) {
+			append('"');
+			append((String)obj);
+			append('"');
+		} else
+			append(obj.toString());
+	}
+	
+	private void initLine(int depth) {
+		if (format != null && format != Format.NONE)
+			append(indentOf(depth));
 		else
-			ret = obj.toString();
-		return ret;
+			append(' ');
+	}
+	
+	private void append(CharSequence str) {
+		try {
+			out.append(str);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 	
-	private String initLine(int depth) {
-		String ind;
-		if (format != null && format != Format.NONE) {
-			ind = buildIndent(depth);
-			buffer.append("\n");
-		} else {
-			ind = " ";
+	private void append(char c) {
+		try {
+			out.append(c);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		return ind;
 	}
 }
@@ -0,0 +1,293 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.util;
+
+import iot.jcypher.database.IDBAccess;
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domain.SyncInfo;
+import iot.jcypher.domain.mapping.MappingUtil;
+import iot.jcypher.query.JcQuery;
+import iot.jcypher.query.JcQueryResult;
+import iot.jcypher.query.api.IClause;
+import iot.jcypher.query.factories.clause.DO;
+import iot.jcypher.query.factories.clause.MATCH;
+import iot.jcypher.query.factories.clause.WHERE;
+import iot.jcypher.query.result.JcError;
+import iot.jcypher.query.values.JcNode;
+import iot.jcypher.samples.domain.people.util.ModelComparators.ModelComparator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes between two graphs of domain objects, as computed by GraphDiff.
+ */
+public class GraphChangeSet {
+
+	private List<Change> changes;
+
+	GraphChangeSet() {
+		super();
+		this.changes = new ArrayList<Change>();
+	}
+
+	void add(Change change) {
+		this.changes.add(change);
+	}
+
+	/**
+	 * answer true if the graphs are equal
+	 * @return true if there are no changes
+	 */
+	public boolean isEmpty() {
+		return this.changes.isEmpty();
+	}
+
+	/**
+	 * answer all changes
+	 * @return a list of changes
+	 */
+	public List<Change> getChanges() {
+		return Collections.unmodifiableList(this.changes);
+	}
+
+	/**
+	 * answer the objects of the 'after' graph which have been changed or created,
+	 * i.e. the objects which need to be written
+	 * @return a list of domain objects, each one contained once
+	 */
+	public List<Object> getChangedObjects() {
+		return objectsOf(changesByObject(false));
+	}
+
+	/**
+	 * answer the objects of the 'before' graph which are no longer part of the 'after' graph
+	 * @return a list of domain objects
+	 */
+	public List<Object> getDeletedObjects() {
+		return objectsOf(changesByObject(true));
+	}
+
+	/**
+	 * write the changes:
+	 * <br/>- if only simple attributes (Strings, numbers, booleans, dates) of an object have changed,
+	 * the properties of its node are set directly, by node id.
+	 * <br/>- other changed objects (changed references, added, removed or reordered list elements)
+	 * and created objects are stored through the IDomainAccess, which writes the objects
+	 * and the objects reachable from them; new referenced objects are stored with their owners.
+	 * <br/>Note: Deleted objects are not removed from the graph database (the IDomainAccess
+	 * cannot delete objects), it is up to the caller to handle them (see getDeletedObjects()).
+	 * Properties which are set directly bypass the optimistic locking of the IDomainAccess.
+	 * @param domainAccess the IDomainAccess which loaded the 'after' graph
+	 * @param dbAccess the IDBAccess of the IDomainAccess, to set properties directly
+	 * @return a list of errors, which is empty if writing was successful
+	 */
+	public List<JcError> applyTo(IDomainAccess domainAccess, IDBAccess dbAccess) {
+		List<Object> toStore = new ArrayList<Object>();
+		List<JcQuery> updates = new ArrayList<JcQuery>();
+		for (List<Change> objChanges : changesByObject(false)) {
+			Object obj = objChanges.get(0).object;
+			SyncInfo syncInfo = domainAccess.getSyncInfo(obj);
+			ModelComparator comparator = ModelComparators.comparatorFor(obj.getClass());
+			if (syncInfo != null && syncInfo.getId() >= 0 && comparator != null &&
+					isPropertiesOnly(objChanges, comparator))
+				updates.add(createUpdate(syncInfo.getId(), obj, objChanges, comparator));
+			else
+				toStore.add(obj);
+		}
+		List<JcError> errors = new ArrayList<JcError>();
+		if (!toStore.isEmpty())
+			errors.addAll(domainAccess.store(toStore));
+		if (errors.isEmpty() && !updates.isEmpty()) {
+			List<JcQueryResult> results = dbAccess.execute(updates);
+			errors.addAll(iot.jcypher.util.Util.collectErrors(results));
+		}
+		return errors;
+	}
+
+	/**
+	 * answer the changes grouped by object (in the order of the changes), either of the changed
+	 * and created objects of the 'after' graph or of the deleted objects of the 'before' graph
+	 */
+	private List<List<Change>> changesByObject(boolean deleted) {
+		Map<Object, List<Change>> byObject = new IdentityHashMap<Object, List<Change>>();
+		List<List<Change>> ret = new ArrayList<List<Change>>();
+		for (Change change : this.changes) {
+			if ((change.kind == ChangeKind.DELETED) != deleted)
+				continue;
+			List<Change> objChanges = byObject.get(change.object);
+			if (objChanges == null) {
+				objChanges = new ArrayList<Change>();
+				byObject.put(change.object, objChanges);
+				ret.add(objChanges);
+			}
+			objChanges.add(change);
+		}
+		return ret;
+	}
+
+	private static List<Object> objectsOf(List<List<Change>> changesByObject) {
+		List<Object> ret = new ArrayList<Object>(changesByObject.size());
+		for (List<Change> objChanges : changesByObject)
+			ret.add(objChanges.get(0).object);
+		return ret;
+	}
+
+	/**
+	 * answer true if only fields which are mapped to node properties have changed
+	 */
+	private static boolean isPropertiesOnly(List<Change> objChanges, ModelComparator comparator) {
+		for (Change change : objChanges) {
+			if (change.kind != ChangeKind.FIELD_CHANGED || change.fieldIndex < 0 ||
+					!comparator.isPropertyField(change.fieldIndex))
+				return false;
+		}
+		return true;
+	}
+
+	private static JcQuery createUpdate(long id, Object obj, List<Change> objChanges,
+			ModelComparator comparator) {
+		JcNode n = new JcNode("n");
+		IClause[] clauses = new IClause[objChanges.size() + 2];
+		clauses[0] = MATCH.node(n);
+		clauses[1] = WHERE.valueOf(n.id()).EQUALS(id);
+		for (int i = 0; i < objChanges.size(); i++) {
+			int index = objChanges.get(i).fieldIndex;
+			Object value = comparator.getFieldValue(index, obj);
+			String property = comparator.getFieldName(index);
+			clauses[i + 2] = value == null ? DO.SET(n.property(property)).toNull() :
+				DO.SET(n.property(property)).to(MappingUtil.convertToProperty(value));
+		}
+		JcQuery query = new JcQuery();
+		query.setClauses(clauses);
+		return query;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Change change : this.changes) {
+			if (sb.length() > 0)
+				sb.append('\n');
+			sb.append(change);
+		}
+		return sb.toString();
+	}
+
+	/*********************************************/
+	public enum ChangeKind {
+		CREATED, FIELD_CHANGED, REFERENCE_CHANGED, ELEMENT_ADDED, ELEMENT_REMOVED,
+		/** the common elements of a list are in a different order */
+		ELEMENTS_REORDERED,
+		/** an object of the 'before' graph is no longer part of the 'after' graph */
+		DELETED
+	}
+
+	/*********************************************/
+	/**
+	 * one change of one object of the 'after' graph
+	 */
+	public static class Change {
+		private ChangeKind kind;
+		private Object object;
+		private String field;
+		private int fieldIndex;
+		private Object oldValue;
+		private Object newValue;
+
+		Change(ChangeKind kind, Object object, String field, int fieldIndex, Object oldValue, Object newValue) {
+			super();
+			this.kind = kind;
+			this.object = object;
+			this.field = field;
+			this.fieldIndex = fieldIndex;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+
+		public ChangeKind getKind() {
+			return kind;
+		}
+
+		/**
+		 * answer the changed (or created) object of the 'after' graph,
+		 * the object of the 'before' graph for DELETED
+		 */
+		public Object getObject() {
+			return object;
+		}
+
+		/**
+		 * answer the name of the changed field, null for created and deleted objects
+		 */
+		public String getField() {
+			return field;
+		}
+
+		/**
+		 * answer the value in the 'before' graph, the removed element for ELEMENT_REMOVED,
+		 * the list in the 'before' graph for ELEMENTS_REORDERED
+		 */
+		public Object getOldValue() {
+			return oldValue;
+		}
+
+		/**
+		 * answer the value in the 'after' graph, the added element for ELEMENT_ADDED,
+		 * the list in the 'after' graph for ELEMENTS_REORDERED
+		 */
+		public Object getNewValue() {
+			return newValue;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(this.kind).append(' ').append(shortName(this.object));
+			if (this.field != null)
+				sb.append('.').append(this.field);
+			switch (this.kind) {
+			case FIELD_CHANGED:
+			case REFERENCE_CHANGED:
+				sb.append(": ").append(shortName(this.oldValue))
+					.append(" -> ").append(shortName(this.newValue));
+				break;
+			case ELEMENT_ADDED:
+				sb.append(" + ").append(shortName(this.newValue));
+				break;
+			case ELEMENT_REMOVED:
+				sb.append(" - ").append(shortName(this.oldValue));
+				break;
+			default:
+				break;
+			}
+			return sb.toString();
+		}
+
+		private static String shortName(Object obj) {
+			if (obj == null)
+				return "null";
+			if (ModelComparators.comparatorFor(obj.getClass()) != null)
+				return obj.getClass().getSimpleName() + '@' +
+						Integer.toHexString(System.identityHashCode(obj));
+			return String.valueOf(obj);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.util;
+
+import iot.jcypher.domain.IDomainAccess;
+import iot.jcypher.domain.SyncInfo;
+import iot.jcypher.samples.domain.people.util.GraphChangeSet.Change;
+import iot.jcypher.samples.domain.people.util.GraphChangeSet.ChangeKind;
+import iot.jcypher.samples.domain.people.util.ModelComparators.ModelComparator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the changes between two graphs of domain objects,
+ * e.g. a graph as it was loaded and the same graph after it has been edited.
+ * <br/>Objects of the two graphs are correlated by their identity in the graph database
+ * (their node ids, see forDomainAccesses(..)), objects without an identity are new objects.
+ * The changes are: changed simple fields (Strings, numbers, enums, ...),
+ * changed references (e.g. a re-parented Area.partOf),
+ * added and removed list elements (e.g. pointsOfContact), reordered list elements,
+ * created objects, and deleted objects (objects of the 'before' graph which are no longer
+ * part of the 'after' graph).
+ * <br/>See GraphChangeSet.applyTo(..), to write the changes only.
+ */
+public class GraphDiff {
+
+	private IIdentity beforeIdentity;
+	private IIdentity afterIdentity;
+
+	/**
+	 * @param beforeIdentity answers the identity of objects of the 'before' graph
+	 * @param afterIdentity answers the identity of objects of the 'after' graph
+	 */
+	public GraphDiff(IIdentity beforeIdentity, IIdentity afterIdentity) {
+		super();
+		this.beforeIdentity = beforeIdentity;
+		this.afterIdentity = afterIdentity;
+	}
+
+	/**
+	 * answer a GraphDiff, which correlates objects by their node ids
+	 * @param before the IDomainAccess which loaded the 'before' graph
+	 * @param after the IDomainAccess which loaded the 'after' graph
+	 * (it is the one to apply the changes with)
+	 * @return a GraphDiff
+	 */
+	public static GraphDiff forDomainAccesses(IDomainAccess before, IDomainAccess after) {
+		return new GraphDiff(new NodeIdIdentity(before), new NodeIdIdentity(after));
+	}
+
+	/**
+	 * compute the changes which turn the 'before' graph into the 'after' graph
+	 * @param before the root objects of the 'before' graph
+	 * @param after the root objects of the 'after' graph
+	 * @return a GraphChangeSet
+	 */
+	public GraphChangeSet diff(List<?> before, List<?> after) {
+		Map<Object, Object> beforeById = new LinkedHashMap<Object, Object>();
+		for (Object obj : DomainObjectWalker.collect(before)) {
+			Object id = this.beforeIdentity.identityOf(obj);
+			if (id != null)
+				beforeById.put(id, obj);
+		}
+		GraphChangeSet changeSet = new GraphChangeSet();
+		Set<Object> afterIds = new HashSet<Object>();
+		for (Object obj : DomainObjectWalker.collect(after)) {
+			Object id = this.afterIdentity.identityOf(obj);
+			Object beforeObj = id != null ? beforeById.get(id) : null;
+			if (id != null)
+				afterIds.add(id);
+			if (beforeObj == null)
+				changeSet.add(new Change(ChangeKind.CREATED, obj, null, -1, null, null));
+			else
+				diffObject(beforeObj, obj, changeSet);
+		}
+		for (Map.Entry<Object, Object> entry : beforeById.entrySet()) {
+			if (!afterIds.contains(entry.getKey()))
+				changeSet.add(new Change(ChangeKind.DELETED, entry.getValue(), null, -1, null, null));
+		}
+		return changeSet;
+	}
+
+	private void diffObject(Object before, Object after, GraphChangeSet changeSet) {
+		ModelComparator comparator = ModelComparators.comparatorFor(after.getClass());
+		if (comparator == null || before.getClass() != after.getClass()) {
+			if (!CompareUtil.equalsObjects(before, after))
+				changeSet.add(new Change(ChangeKind.FIELD_CHANGED, after, null, -1, before, after));
+			return;
+		}
+		for (int i = 0; i < comparator.getFieldCount(); i++) {
+			Object b = comparator.getFieldValue(i, before);
+			Object a = comparator.getFieldValue(i, after);
+			String field = comparator.getFieldName(i);
+			if (comparator.isSimpleField(i)) {
+				if (a == null ? b != null : !a.equals(b))
+					changeSet.add(new Change(ChangeKind.FIELD_CHANGED, after, field, i, b, a));
+			} else if (a instanceof List<?> && b instanceof List<?> &&
+					isDomainObjectList((List<?>) a) && isDomainObjectList((List<?>) b)) {
+				diffList(after, field, i, (List<?>) b, (List<?>) a, changeSet);
+			} else if (isDomainObject(a) || isDomainObject(b)) {
+				if (!sameIdentity(b, a))
+					changeSet.add(new Change(ChangeKind.REFERENCE_CHANGED, after, field, i, b, a));
+			} else if (!CompareUtil.equalsObjects(b, a))
+				changeSet.add(new Change(ChangeKind.FIELD_CHANGED, after, field, i, b, a));
+		}
+	}
+
+	private void diffList(Object owner, String field, int fieldIndex, List<?> before, List<?> after,
+			GraphChangeSet changeSet) {
+		List<Object> afterIds = new ArrayList<Object>();
+		for (Object elem : after) {
+			Object id = elem != null ? this.afterIdentity.identityOf(elem) : null;
+			if (id != null)
+				afterIds.add(id);
+		}
+		Set<Object> afterIdSet = new HashSet<Object>(afterIds);
+		List<Object> beforeIds = new ArrayList<Object>();
+		for (Object elem : before) {
+			Object id = elem != null ? this.beforeIdentity.identityOf(elem) : null;
+			if (id != null) {
+				beforeIds.add(id);
+				if (!afterIdSet.contains(id))
+					changeSet.add(new Change(ChangeKind.ELEMENT_REMOVED, owner, field, fieldIndex, elem, null));
+			}
+		}
+		Set<Object> beforeIdSet = new HashSet<Object>(beforeIds);
+		for (Object elem : after) {
+			if (elem == null)
+				continue;
+			Object id = this.afterIdentity.identityOf(elem);
+			if (id == null || !beforeIdSet.contains(id))
+				changeSet.add(new Change(ChangeKind.ELEMENT_ADDED, owner, field, fieldIndex, null, elem));
+		}
+		// the elements contained in both lists must be in the same order
+		beforeIds.retainAll(afterIdSet);
+		afterIds.retainAll(beforeIdSet);
+		if (!beforeIds.equals(afterIds))
+			changeSet.add(new Change(ChangeKind.ELEMENTS_REORDERED, owner, field, fieldIndex, before, after));
+	}
+
+	private boolean sameIdentity(Object before, Object after) {
+		if (before == null || after == null)
+			return before == after;
+		Object id = this.afterIdentity.identityOf(after);
+		return id != null && id.equals(this.beforeIdentity.identityOf(before));
+	}
+
+	private static boolean isDomainObject(Object obj) {
+		return obj != null && ModelComparators.comparatorFor(obj.getClass()) != null;
+	}
+
+	private static boolean isDomainObjectList(List<?> list) {
+		for (Object elem : list) {
+			if (elem != null && !isDomainObject(elem))
+				return false;
+		}
+		return true;
+	}
+
+	/*********************************************/
+	/**
+	 * answers the identity of domain objects, by which objects of two graphs are correlated
+	 */
+	public interface IIdentity {
+		/**
+		 * answer the identity of a domain object
+		 * @param domainObject
+		 * @return the identity, or null if the object has none (i.e. it is a new object)
+		 */
+		Object identityOf(Object domainObject);
+	}
+
+	/*********************************************/
+	private static class NodeIdIdentity implements IIdentity {
+
+		private IDomainAccess domainAccess;
+
+		private NodeIdIdentity(IDomainAccess domainAccess) {
+			super();
+			this.domainAccess = domainAccess;
+		}
+
+		@Override
+		public Object identityOf(Object domainObject) {
+			SyncInfo syncInfo = this.domainAccess.getSyncInfo(domainObject);
+			if (syncInfo == null || syncInfo.getId() < 0)
+				return null;
+			return Long.valueOf(syncInfo.getId());
+		}
+	}
+}
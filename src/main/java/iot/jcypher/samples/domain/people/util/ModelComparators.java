@@ -0,0 +1,225 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.util;
+
+import iot.jcypher.samples.domain.people.model.Person;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds, once per class, a comparator for the classes of the model package
+ * (see Person, Address, ...) and caches it by class.
+ * <br/>A comparator compares all instance fields of a class and its super classes,
+ * which are read via MethodHandles. Primitives, Strings and enums are compared by equals,
+ * other values (domain objects, lists) are compared deeply by CompareUtil.
+ */
+public class ModelComparators {
+
+	public static final String MODEL_PACKAGE = Person.class.getPackage().getName();
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private static ClassValue<ModelComparator> comparators = new ClassValue<ModelComparator>() {
+		@Override
+		protected ModelComparator computeValue(Class<?> type) {
+			if (!isModelClass(type))
+				return null;
+			return new ModelComparator(type);
+		}
+	};
+
+	/**
+	 * answer the comparator for the given class,
+	 * answer null if the class is not a class of the model package
+	 * @param type
+	 * @return a ModelComparator or null
+	 */
+	public static ModelComparator comparatorFor(Class<?> type) {
+		return comparators.get(type);
+	}
+
+	private static boolean isModelClass(Class<?> type) {
+		if (type.isEnum() || type.isInterface() || type.isArray() || type.isPrimitive())
+			return false;
+		Package pkg = type.getPackage();
+		return pkg != null && pkg.getName().equals(MODEL_PACKAGE);
+	}
+
+	/*********************************************/
+	public static class ModelComparator {
+
+		private Class<?> type;
+		private String[] fieldNames;
+		private Class<?>[] fieldTypes;
+		private MethodHandle[] getters;
+		private boolean[] simple;
+
+		private ModelComparator(Class<?> type) {
+			super();
+			this.type = type;
+			List<Field> fields = new ArrayList<Field>();
+			List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+			for (Class<?> cls = type; cls != null && cls != Object.class; cls = cls.getSuperclass())
+				hierarchy.add(0, cls);
+			// fields of super classes first
+			for (Class<?> cls : hierarchy) {
+				for (Field field : cls.getDeclaredFields()) {
+					int mod = field.getModifiers();
+					if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || field.isSynthetic())
+						continue;
+					fields.add(field);
+				}
+			}
+			this.fieldNames = new String[fields.size()];
+			this.fieldTypes = new Class<?>[fields.size()];
+			this.getters = new MethodHandle[fields.size()];
+			this.simple = new boolean[fields.size()];
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			for (int i = 0; i < fields.size(); i++) {
+				Field field = fields.get(i);
+				field.setAccessible(true);
+				this.fieldNames[i] = field.getName();
+				this.fieldTypes[i] = field.getType();
+				try {
+					this.getters[i] = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(e);
+				}
+				Class<?> fieldType = field.getType();
+				this.simple[i] = fieldType.isPrimitive() || fieldType.isEnum() ||
+						fieldType == String.class;
+			}
+		}
+
+		/**
+		 * compare two objects of the comparator's class
+		 * @param o_1
+		 * @param o_2
+		 * @param alreadyCompareds pairs already compared (to avoid infinite loops)
+		 * @return true if the objects are equal
+		 */
+		boolean equals(Object o_1, Object o_2, Map<AlreadyCompared, AlreadyCompared> alreadyCompareds) {
+			AlreadyCompared ac = AlreadyCompared.alreadyCompared(o_1, o_2, alreadyCompareds);
+			if (ac != null) // avoid infinite loops
+				return ac.getResult();
+
+			ac = new AlreadyCompared(o_1, o_2);
+			ac.setResult(true);
+			alreadyCompareds.put(ac, ac);
+
+			if (o_1 == o_2)
+				return true;
+			if (o_1.getClass() != this.type || o_2.getClass() != this.type)
+				return ac.setResult(false);
+			for (int i = 0; i < this.getters.length; i++) {
+				Object v1 = getFieldValue(i, o_1);
+				Object v2 = getFieldValue(i, o_2);
+				if (v1 == v2)
+					continue;
+				if (v1 == null || v2 == null)
+					return ac.setResult(false);
+				boolean equal = this.simple[i] ? v1.equals(v2) :
+					CompareUtil.equalsObjects(v1, v2, alreadyCompareds);
+				if (!equal)
+					return ac.setResult(false);
+			}
+			return true;
+		}
+
+		/**
+		 * answer the names of the compared fields
+		 * @return an array of field names
+		 */
+		public String[] getFieldNames() {
+			return fieldNames.clone();
+		}
+
+		/**
+		 * answer the name of the field with the given index
+		 * @param index
+		 * @return a field name
+		 */
+		public String getFieldName(int index) {
+			return this.fieldNames[index];
+		}
+
+		/**
+		 * answer the declared type of the field with the given index
+		 * @param index
+		 * @return a field type
+		 */
+		public Class<?> getFieldType(int index) {
+			return this.fieldTypes[index];
+		}
+
+		/**
+		 * answer the number of compared fields
+		 * @return the number of fields
+		 */
+		public int getFieldCount() {
+			return this.getters.length;
+		}
+
+		/**
+		 * answer true if the field is compared by equals
+		 * (primitives, Strings and enums)
+		 * @param index
+		 * @return true for a simple field
+		 */
+		public boolean isSimpleField(int index) {
+			return this.simple[index];
+		}
+
+		/**
+		 * answer true if values of the field are mapped to a node property,
+		 * which can be set directly (Strings, numbers, booleans, dates)
+		 * @param index
+		 * @return true for a property field
+		 */
+		public boolean isPropertyField(int index) {
+			Class<?> type = this.fieldTypes[index];
+			if (type.isPrimitive())
+				return type != char.class;
+			return String.class == type || Number.class.isAssignableFrom(type) ||
+					Boolean.class == type || Date.class.isAssignableFrom(type);
+		}
+
+		/**
+		 * answer the value of the field with the given index
+		 * @param index
+		 * @param obj an object of the comparator's class
+		 * @return the field value
+		 */
+		public Object getFieldValue(int index, Object obj) {
+			try {
+				return this.getters[index].invokeExact(obj);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/************************************************************************
+ * Copyright (c) 2014-2015 IoT-Solutions e.U.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ************************************************************************/
+
+package iot.jcypher.samples.domain.people.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deep comparison of object graphs (see CompareUtil) using fork/join.
+ * <br/>Lists of roots (e.g. the result of loadByIds(Object.class, -1, ids)) are split
+ * into subtasks, the elements of a subtask are compared by CompareUtil.
+ * All tasks share the already compared pairs (cycle detection) in a concurrent map,
+ * every task stops as soon as a mismatch has been found by any task.
+ */
+public class ParallelCompareUtil {
+
+	/** lists with at most this number of elements are compared by one task */
+	public static final int DEFAULT_THRESHOLD = 256;
+
+	/**
+	 * compare two object graphs using the common fork/join pool
+	 * @param o_1
+	 * @param o_2
+	 * @return true if the object graphs are equal
+	 */
+	public static boolean equalsObjects(Object o_1, Object o_2) {
+		return equalsObjects(o_1, o_2, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * compare two object graphs
+	 * @param o_1
+	 * @param o_2
+	 * @param pool the pool to run the comparison in
+	 * @param threshold lists with at most this number of elements are compared by one task
+	 * @return true if the object graphs are equal
+	 */
+	public static boolean equalsObjects(Object o_1, Object o_2, ForkJoinPool pool, int threshold) {
+		if (threshold <= 0)
+			throw new IllegalArgumentException("threshold must be greater than 0");
+		if (!(o_1 instanceof List<?>) || !(o_2 instanceof List<?>) || o_1 == o_2)
+			return CompareUtil.equalsObjects(o_1, o_2);
+		List<?> list_1 = (List<?>) o_1;
+		List<?> list_2 = (List<?>) o_2;
+		if (list_1.size() != list_2.size())
+			return false;
+		Map<AlreadyCompared, AlreadyCompared> acs =
+				new ConcurrentHashMap<AlreadyCompared, AlreadyCompared>();
+		CompareTask task = new CompareTask(list_1, list_2, 0, list_1.size(), threshold,
+				acs, new AtomicBoolean(false));
+		return pool.invoke(task).booleanValue();
+	}
+
+	/*********************************************/
+	private static class CompareTask extends RecursiveTask<Boolean> {
+
+		private static final long serialVersionUID = 1L;
+
+		private List<?> list_1;
+		private List<?> list_2;
+		private int from;
+		private int to;
+		private int threshold;
+		private Map<AlreadyCompared, AlreadyCompared> acs;
+		private AtomicBoolean mismatch;
+
+		private CompareTask(List<?> list_1, List<?> list_2, int from, int to, int threshold,
+				Map<AlreadyCompared, AlreadyCompared> acs, AtomicBoolean mismatch) {
+			super();
+			this.list_1 = list_1;
+			this.list_2 = list_2;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+			this.acs = acs;
+			this.mismatch = mismatch;
+		}
+
+		@Override
+		protected Boolean compute() {
+			if (this.mismatch.get())
+				return Boolean.FALSE;
+			if (this.to - this.from <= this.threshold)
+				return Boolean.valueOf(compareElements());
+			int mid = (this.from + this.to) >>> 1;
+			CompareTask left = new CompareTask(this.list_1, this.list_2, this.from, mid,
+					this.threshold, this.acs, this.mismatch);
+			CompareTask right = new CompareTask(this.list_1, this.list_2, mid, this.to,
+					this.threshold, this.acs, this.mismatch);
+			left.fork();
+			boolean equal = right.compute().booleanValue();
+			if (!equal) {
+				// the left task will stop as soon as it sees the mismatch
+				left.join();
+				return Boolean.FALSE;
+			}
+			return left.join();
+		}
+
+		private boolean compareElements() {
+			for (int i = this.from; i < this.to; i++) {
+				if (this.mismatch.get())
+					return false;
+				Object o1 = this.list_1.get(i);
+				Object o2 = this.list_2.get(i);
+				if (!(o1==null ? o2==null : CompareUtil.equalsObjects(o1, o2, this.acs))) {
+					this.mismatch.set(true);
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}